@@ -0,0 +1,10 @@
+package com.ojitos369.lumaloop
+
+import android.app.Application
+import coil.ImageLoader
+import coil.ImageLoaderFactory
+import com.ojitos369.lumaloop.ui.utils.GalleryImageLoader
+
+class LumaLoopApplication : Application(), ImageLoaderFactory {
+    override fun newImageLoader(): ImageLoader = GalleryImageLoader.create(this)
+}
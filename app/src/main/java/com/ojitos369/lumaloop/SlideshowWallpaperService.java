@@ -16,11 +16,12 @@ import android.view.SurfaceHolder;
 import android.util.Log;
 
 import androidx.annotation.RequiresApi;
-import androidx.preference.PreferenceManager;
 
+import com.ojitos369.lumaloop.preferences.MediaDatabase;
 import com.ojitos369.lumaloop.preferences.SharedPreferencesManager;
 import com.ojitos369.lumaloop.utilities.CurrentMediaHandler;
 import com.ojitos369.lumaloop.utilities.MediaInfo;
+import com.ojitos369.lumaloop.utilities.PlaybackPolicyMonitor;
 
 /**
  * Clean SlideshowWallpaperService implementation.
@@ -33,7 +34,7 @@ public class SlideshowWallpaperService extends WallpaperService {
     }
 
     private class SlideshowWallpaperEngine extends Engine
-            implements SharedPreferences.OnSharedPreferenceChangeListener {
+            implements SharedPreferences.OnSharedPreferenceChangeListener, MediaDatabase.OnMediaChangeListener {
         private static final String TAG = "SlideshowWallpaperEngine";
         private final Handler handler = new Handler(Looper.getMainLooper());
         private CurrentMediaHandler currentMediaHandler;
@@ -43,6 +44,8 @@ public class SlideshowWallpaperService extends WallpaperService {
         private final SharedPreferences sharedPrefs;
         private GestureDetector gestureDetector;
         private boolean surfaceReady = false;
+        // Watched only while visible; a hidden wallpaper draws nothing to throttle
+        private final PlaybackPolicyMonitor policyMonitor;
 
         // Two-finger double-tap (toggles video sound)
         private static final long TWO_FINGER_TAP_TIMEOUT_MS = 250;
@@ -57,11 +60,18 @@ public class SlideshowWallpaperService extends WallpaperService {
 
         SlideshowWallpaperEngine() {
             // Use default SharedPreferences to match WallpaperPreferencesFragment
-            sharedPrefs = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
-            manager = new SharedPreferencesManager(sharedPrefs);
+            manager = SharedPreferencesManager.fromContext(getApplicationContext());
+            sharedPrefs = manager.getPreferences();
             initGestureDetector();
-            // Register for preference changes
+            policyMonitor = new PlaybackPolicyMonitor(getApplicationContext(), policy -> {
+                if (currentMediaHandler != null) {
+                    currentMediaHandler.setPlaybackPolicy(policy);
+                }
+            });
+            policyMonitor.setEnabled(manager.getBatteryAwarePlayback());
+            // Register for preference and media list changes
             sharedPrefs.registerOnSharedPreferenceChangeListener(this);
+            manager.addOnMediaChangeListener(this);
         }
 
         private void initGestureDetector() {
@@ -204,8 +214,11 @@ public class SlideshowWallpaperService extends WallpaperService {
             super.onSurfaceDestroyed(holder);
             Log.d(TAG, "onSurfaceDestroyed");
             surfaceReady = false;
-            if (currentMediaHandler != null)
+            if (currentMediaHandler != null) {
+                // Stopping releases its threads; the next surface gets a new handler
                 currentMediaHandler.stop();
+                currentMediaHandler = null;
+            }
         }
 
         @Override
@@ -217,6 +230,7 @@ public class SlideshowWallpaperService extends WallpaperService {
                 currentMediaHandler = new CurrentMediaHandler(manager, width, height, getApplicationContext(),
                         getSurfaceHolder());
                 currentMediaHandler.addNextMediaListener(this::displayCurrentMedia);
+                currentMediaHandler.setPlaybackPolicy(policyMonitor.getPolicy());
                 currentMediaHandler.updateAfter(getApplicationContext(), 0);
             } else {
                 currentMediaHandler.updateSurface(holder);
@@ -229,6 +243,11 @@ public class SlideshowWallpaperService extends WallpaperService {
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
             Log.d(TAG, "onVisibilityChanged: " + visible);
+            if (visible) {
+                policyMonitor.start();
+            } else {
+                policyMonitor.stop();
+            }
             if (currentMediaHandler != null) {
                 if (visible && surfaceReady)
                     currentMediaHandler.resume(getApplicationContext());
@@ -248,6 +267,10 @@ public class SlideshowWallpaperService extends WallpaperService {
         public WallpaperColors onComputeColors() {
             if (currentMediaHandler != null && currentMediaHandler.getCurrentMedia() != null) {
                 Bitmap bitmap = currentMediaHandler.getCurrentMedia().getImage();
+                if (bitmap != null && bitmap.getConfig() == Bitmap.Config.HARDWARE) {
+                    // Hardware bitmaps have no CPU-side pixels to sample
+                    bitmap = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+                }
                 if (bitmap != null) {
                     return WallpaperColors.fromBitmap(bitmap);
                 }
@@ -259,56 +282,79 @@ public class SlideshowWallpaperService extends WallpaperService {
         public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
             Log.d(TAG, "Preference changed: " + key);
             try {
-                // Handle media list changes - force reload
-                if ("pick_images".equals(key)) {
-                    Log.d(TAG, "Media list changed, forcing reload");
-                    if (currentMediaHandler != null && surfaceReady && isVisible()) {
-                        handler.postDelayed(() -> {
-                            try {
-                                if (currentMediaHandler != null) {
-                                    currentMediaHandler.forceNextMedia(getApplicationContext());
-                                }
-                            } catch (Exception e) {
-                                Log.e(TAG, "Error forcing next media", e);
-                            }
-                        }, 300);
-                    }
+                // Anything that changes what plays next makes prefetched slides stale
+                if (currentMediaHandler != null && isPlaylistKey(key)) {
+                    currentMediaHandler.invalidatePrefetch();
+                }
+                if ("battery_aware_playback".equals(key)) {
+                    policyMonitor.setEnabled(manager.getBatteryAwarePlayback());
                 }
                 // Handle ordering or interval changes - advance to apply
-                else if ("ordering".equals(key) || "seconds".equals(key) ||
+                if ("ordering".equals(key) || "seconds".equals(key) ||
                         "too_wide_images_rule".equals(key) || "active_tags".equals(key)) {
                     Log.d(TAG, "Settings or tags changed, forcing reload");
-                    if (currentMediaHandler != null && surfaceReady && isVisible()) {
-                        handler.postDelayed(() -> {
-                            try {
-                                if (currentMediaHandler != null) {
-                                    currentMediaHandler.forceNextMedia(getApplicationContext());
-                                }
-                            } catch (Exception e) {
-                                Log.e(TAG, "Error forcing next media", e);
-                            }
-                        }, 300);
-                    }
+                    scheduleReload();
                 }
             } catch (Exception e) {
                 Log.e(TAG, "Error handling preference change", e);
             }
         }
 
+        @Override
+        public void onMediaChanged(boolean listChanged) {
+            // May be called from a background thread
+            handler.post(() -> {
+                if (currentMediaHandler != null) {
+                    currentMediaHandler.invalidatePrefetch();
+                }
+                // Handle media list changes - force reload
+                if (listChanged) {
+                    Log.d(TAG, "Media list changed, forcing reload");
+                    scheduleReload();
+                }
+            });
+        }
+
+        private void scheduleReload() {
+            if (currentMediaHandler != null && surfaceReady && isVisible()) {
+                handler.postDelayed(() -> {
+                    try {
+                        if (currentMediaHandler != null) {
+                            currentMediaHandler.forceNextMedia(getApplicationContext());
+                        }
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error forcing next media", e);
+                    }
+                }, 300);
+            }
+        }
+
+        private boolean isPlaylistKey(String key) {
+            return key != null && ("ordering".equals(key)
+                    || "active_tags".equals(key) || "tag_filter_mode".equals(key)
+                    || "hidden_tags".equals(key) || "ignored_filter_tags".equals(key));
+        }
+
         @Override
         public void onDestroy() {
             super.onDestroy();
             // Unregister listener
             sharedPrefs.unregisterOnSharedPreferenceChangeListener(this);
-            if (currentMediaHandler != null)
+            manager.removeOnMediaChangeListener(this);
+            policyMonitor.stop();
+            if (currentMediaHandler != null) {
                 currentMediaHandler.stop();
+                currentMediaHandler = null;
+            }
         }
 
         @Override
         public void onOffsetsChanged(float xOffset, float yOffset, float xOffsetStep, float yOffsetStep,
                 int xPixelOffset, int yPixelOffset) {
-            // ExoPlayer handles all rendering - no scrolling offset needed
-            // Images/videos are rendered by ExoPlayer which handles scaling automatically
+            // Scroll display modes pan the current texture on the GPU; nothing is re-decoded
+            if (currentMediaHandler != null) {
+                currentMediaHandler.setScrollOffset(xOffset);
+            }
         }
     }
 }
@@ -0,0 +1,722 @@
+package com.ojitos369.lumaloop.preferences;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * SQLite storage for the media list and per-item tags, replacing the
+ * ';'-joined {@code pick_images} string and the {@code tags_<uri>} sets that
+ * used to live in SharedPreferences. There is one database per preferences
+ * file, so the phone and watch galleries stay separate.
+ *
+ * <p>An item with a {@code NULL} position is not part of the media list but
+ * still carries tags, matching the old behaviour where removing a uri left its
+ * {@code tags_} entry in place.</p>
+ *
+ * <p>Every tag row keeps the number of listed items carrying it in
+ * {@code item_count}. Triggers update it whenever a tag is attached or
+ * detached or an item enters or leaves the list, so reading the counts never
+ * scans the items.</p>
+ *
+ * <p>Items also cache their MediaStore name, date and type, so the gallery can
+ * read pages of the list already sorted without asking MediaStore first.</p>
+ *
+ * <p>Imported items also store a content fingerprint (see
+ * {@code ContentFingerprint}), indexed so duplicate imports are found with a
+ * single lookup.</p>
+ */
+public class MediaDatabase extends SQLiteOpenHelper {
+    private static final String TAG = "MediaDatabase";
+
+    private static final int DATABASE_VERSION = 4;
+
+    private static final String LEGACY_KEY_URI_LIST = "pick_images";
+    private static final String LEGACY_KEY_TAGS_PREFIX = "tags_";
+
+    private static final String TABLE_ITEMS = "items";
+    private static final String TABLE_TAGS = "tags";
+    private static final String TABLE_ITEM_TAGS = "item_tags";
+
+    // Separates tag names in the group_concat of a page query
+    private static final String TAG_SEPARATOR = "\u001f";
+
+    private static final Map<String, MediaDatabase> instances = new HashMap<>();
+
+    /** Orders of {@link #getItemsPage}; ties keep the selection order. */
+    public enum SortOrder {
+        DATE_DESC("i.date_modified DESC"),
+        DATE_ASC("i.date_modified ASC"),
+        NAME_ASC("i.name COLLATE NOCASE ASC"),
+        NAME_DESC("i.name COLLATE NOCASE DESC"),
+        TAG_COUNT_DESC("tag_count DESC"),
+        TAG_COUNT_ASC("tag_count ASC");
+
+        private final String orderBy;
+
+        SortOrder(String orderBy) {
+            this.orderBy = orderBy;
+        }
+    }
+
+    /** A listed item with its cached MediaStore metadata and its tags. */
+    public static final class Item {
+        public final String uri;
+        /** {@code null} until the item was first seen in MediaStore */
+        public final String name;
+        public final long dateModified;
+        public final boolean isVideo;
+        public final List<String> tags;
+
+        public Item(String uri, String name, long dateModified, boolean isVideo, List<String> tags) {
+            this.uri = uri;
+            this.name = name;
+            this.dateModified = dateModified;
+            this.isVideo = isVideo;
+            this.tags = tags;
+        }
+    }
+
+    public interface OnMediaChangeListener {
+        /**
+         * Called on the thread that made the change.
+         *
+         * @param listChanged {@code true} if items were added, removed or replaced,
+         *                    {@code false} if only tags changed
+         */
+        void onMediaChanged(boolean listChanged);
+    }
+
+    private final SharedPreferences preferences;
+    // Weakly held, like SharedPreferences listeners: managers are created freely and must not leak
+    private final WeakHashMap<OnMediaChangeListener, Boolean> listeners = new WeakHashMap<>();
+    private volatile boolean migrated = false;
+
+    private MediaDatabase(Context context, String preferencesName) {
+        super(context, preferencesName + "_media.db", null, DATABASE_VERSION);
+        this.preferences = context.getSharedPreferences(preferencesName, Context.MODE_PRIVATE);
+    }
+
+    static synchronized MediaDatabase getInstance(Context context, String preferencesName) {
+        MediaDatabase result = instances.get(preferencesName);
+        if (result == null) {
+            result = new MediaDatabase(context.getApplicationContext(), preferencesName);
+            instances.put(preferencesName, result);
+        }
+        return result;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.setForeignKeyConstraintsEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ITEMS + " ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "uri TEXT NOT NULL UNIQUE, "
+                + "position INTEGER, "
+                + "name TEXT, "
+                + "date_modified INTEGER NOT NULL DEFAULT 0, "
+                + "is_video INTEGER NOT NULL DEFAULT 0, "
+                + "fingerprint TEXT)");
+        db.execSQL("CREATE INDEX items_position ON " + TABLE_ITEMS + " (position)");
+        db.execSQL("CREATE INDEX items_date ON " + TABLE_ITEMS + " (date_modified)");
+        db.execSQL("CREATE INDEX items_fingerprint ON " + TABLE_ITEMS + " (fingerprint)");
+        db.execSQL("CREATE TABLE " + TABLE_TAGS + " ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL UNIQUE, "
+                + "item_count INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE TABLE " + TABLE_ITEM_TAGS + " ("
+                + "item_id INTEGER NOT NULL REFERENCES " + TABLE_ITEMS + "(_id) ON DELETE CASCADE, "
+                + "tag_id INTEGER NOT NULL REFERENCES " + TABLE_TAGS + "(_id) ON DELETE CASCADE, "
+                + "PRIMARY KEY (item_id, tag_id))");
+        db.execSQL("CREATE INDEX item_tags_tag ON " + TABLE_ITEM_TAGS + " (tag_id)");
+        createTagCountTriggers(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE_TAGS + " ADD COLUMN item_count INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("UPDATE " + TABLE_TAGS + " SET item_count = (SELECT COUNT(*) FROM " + TABLE_ITEM_TAGS + " it"
+                    + " JOIN " + TABLE_ITEMS + " i ON i._id = it.item_id"
+                    + " WHERE it.tag_id = " + TABLE_TAGS + "._id AND i.position IS NOT NULL)");
+            createTagCountTriggers(db);
+        }
+        if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + TABLE_ITEMS + " ADD COLUMN name TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_ITEMS + " ADD COLUMN date_modified INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE_ITEMS + " ADD COLUMN is_video INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("CREATE INDEX items_date ON " + TABLE_ITEMS + " (date_modified)");
+        }
+        if (oldVersion < 4) {
+            db.execSQL("ALTER TABLE " + TABLE_ITEMS + " ADD COLUMN fingerprint TEXT");
+            db.execSQL("CREATE INDEX items_fingerprint ON " + TABLE_ITEMS + " (fingerprint)");
+        }
+    }
+
+    private static void createTagCountTriggers(SQLiteDatabase db) {
+        String listed = "(SELECT position FROM " + TABLE_ITEMS + " WHERE _id = %s.item_id) IS NOT NULL";
+        db.execSQL("CREATE TRIGGER item_tags_count_insert AFTER INSERT ON " + TABLE_ITEM_TAGS
+                + " WHEN " + String.format(listed, "NEW") + " BEGIN"
+                + " UPDATE " + TABLE_TAGS + " SET item_count = item_count + 1 WHERE _id = NEW.tag_id; END");
+        db.execSQL("CREATE TRIGGER item_tags_count_delete AFTER DELETE ON " + TABLE_ITEM_TAGS
+                + " WHEN " + String.format(listed, "OLD") + " BEGIN"
+                + " UPDATE " + TABLE_TAGS + " SET item_count = item_count - 1 WHERE _id = OLD.tag_id; END");
+        db.execSQL("CREATE TRIGGER items_count_listed AFTER UPDATE OF position ON " + TABLE_ITEMS
+                + " WHEN OLD.position IS NULL AND NEW.position IS NOT NULL BEGIN"
+                + " UPDATE " + TABLE_TAGS + " SET item_count = item_count + 1 WHERE _id IN"
+                + " (SELECT tag_id FROM " + TABLE_ITEM_TAGS + " WHERE item_id = NEW._id); END");
+        db.execSQL("CREATE TRIGGER items_count_unlisted AFTER UPDATE OF position ON " + TABLE_ITEMS
+                + " WHEN OLD.position IS NOT NULL AND NEW.position IS NULL BEGIN"
+                + " UPDATE " + TABLE_TAGS + " SET item_count = item_count - 1 WHERE _id IN"
+                + " (SELECT tag_id FROM " + TABLE_ITEM_TAGS + " WHERE item_id = NEW._id); END");
+    }
+
+    /**
+     * Registers a listener for list and tag changes. Only a weak reference is
+     * kept, so the caller has to hold on to the listener.
+     */
+    public void addOnMediaChangeListener(OnMediaChangeListener listener) {
+        synchronized (listeners) {
+            listeners.put(listener, Boolean.TRUE);
+        }
+    }
+
+    public void removeOnMediaChangeListener(OnMediaChangeListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    private void notifyListeners(boolean listChanged) {
+        List<OnMediaChangeListener> snapshot;
+        synchronized (listeners) {
+            snapshot = new ArrayList<>(listeners.keySet());
+        }
+        for (OnMediaChangeListener listener : snapshot) {
+            listener.onMediaChanged(listChanged);
+        }
+    }
+
+    private SQLiteDatabase database() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (!migrated) {
+            migrateFromPreferences(db);
+        }
+        return db;
+    }
+
+    /**
+     * Moves the legacy {@code pick_images} list and {@code tags_} sets into the
+     * database once, then deletes them from the preferences file so it no
+     * longer has to be parsed at startup.
+     */
+    private synchronized void migrateFromPreferences(SQLiteDatabase db) {
+        if (migrated) return;
+        Map<String, ?> all = preferences.getAll();
+        Object list = all.get(LEGACY_KEY_URI_LIST);
+        List<String> legacyKeys = new ArrayList<>();
+        db.beginTransaction();
+        try {
+            if (list instanceof String && !((String) list).isEmpty()) {
+                long position = nextPosition(db);
+                for (String uri : ((String) list).split(";")) {
+                    if (findItemPosition(db, uri) == null) {
+                        setItemPosition(db, uri, position++);
+                    }
+                }
+                legacyKeys.add(LEGACY_KEY_URI_LIST);
+            }
+            for (Map.Entry<String, ?> entry : all.entrySet()) {
+                if (entry.getKey().startsWith(LEGACY_KEY_TAGS_PREFIX) && entry.getValue() instanceof Set) {
+                    String uri = entry.getKey().substring(LEGACY_KEY_TAGS_PREFIX.length());
+                    for (Object tag : (Set<?>) entry.getValue()) {
+                        insertItemTag(db, uri, String.valueOf(tag));
+                    }
+                    legacyKeys.add(entry.getKey());
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (!legacyKeys.isEmpty()) {
+            SharedPreferences.Editor editor = preferences.edit();
+            for (String key : legacyKeys) {
+                editor.remove(key);
+            }
+            editor.apply();
+            Log.i(TAG, "Migrated " + legacyKeys.size() + " preference entries to the media database");
+        }
+        migrated = true;
+    }
+
+    /** The uris of the media list, in selection order. */
+    public List<String> getUris() {
+        List<String> result = new ArrayList<>();
+        try (Cursor cursor = database().rawQuery("SELECT uri FROM " + TABLE_ITEMS
+                + " WHERE position IS NOT NULL ORDER BY position", null)) {
+            while (cursor.moveToNext()) {
+                result.add(cursor.getString(0));
+            }
+        }
+        return result;
+    }
+
+    public boolean containsUri(String uri) {
+        return findItemPosition(database(), uri) != null;
+    }
+
+    /**
+     * Appends the given uris to the end of the media list. Uris already in the list are skipped.
+     *
+     * @return whether anything was added
+     */
+    public boolean addUris(Collection<String> uris) {
+        boolean changed = false;
+        SQLiteDatabase db = database();
+        db.beginTransaction();
+        try {
+            long position = nextPosition(db);
+            for (String uri : uris) {
+                if (findItemPosition(db, uri) == null) {
+                    setItemPosition(db, uri, position++);
+                    changed = true;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changed) {
+            notifyListeners(true);
+        }
+        return changed;
+    }
+
+    /**
+     * Takes the given uris out of the media list. Their tags are kept until the
+     * last one is removed.
+     */
+    public boolean removeUris(Collection<String> uris) {
+        boolean changed = false;
+        SQLiteDatabase db = database();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.putNull("position");
+            for (String uri : uris) {
+                changed |= db.update(TABLE_ITEMS, values, "uri = ? AND position IS NOT NULL", new String[]{uri}) > 0;
+                deleteIfUnused(db, uri);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changed) {
+            notifyListeners(true);
+        }
+        return changed;
+    }
+
+    /**
+     * Puts {@code newUri} at the position of {@code oldUri}. Like before, the
+     * new uri starts without tags. Returns {@code false} if {@code oldUri} is not in the list.
+     */
+    public boolean replaceUri(String oldUri, String newUri) {
+        boolean changed = false;
+        SQLiteDatabase db = database();
+        db.beginTransaction();
+        try {
+            Long position = findItemPosition(db, oldUri);
+            if (position != null) {
+                ContentValues values = new ContentValues();
+                values.putNull("position");
+                db.update(TABLE_ITEMS, values, "uri = ?", new String[]{oldUri});
+                deleteIfUnused(db, oldUri);
+                Long existing = findItemPosition(db, newUri);
+                if (existing == null) {
+                    setItemPosition(db, newUri, position);
+                }
+                changed = true;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changed) {
+            notifyListeners(true);
+        }
+        return changed;
+    }
+
+    public List<String> getTags(String uri) {
+        List<String> result = new ArrayList<>();
+        try (Cursor cursor = database().rawQuery("SELECT t.name FROM " + TABLE_ITEM_TAGS + " it"
+                + " JOIN " + TABLE_TAGS + " t ON t._id = it.tag_id"
+                + " JOIN " + TABLE_ITEMS + " i ON i._id = it.item_id"
+                + " WHERE i.uri = ?", new String[]{uri})) {
+            while (cursor.moveToNext()) {
+                result.add(cursor.getString(0));
+            }
+        }
+        return result;
+    }
+
+    /** Tags of every item in the media list, read with a single query. */
+    public Map<String, List<String>> getTagsOfListedItems() {
+        Map<String, List<String>> result = new HashMap<>();
+        try (Cursor cursor = database().rawQuery("SELECT i.uri, t.name FROM " + TABLE_ITEM_TAGS + " it"
+                + " JOIN " + TABLE_TAGS + " t ON t._id = it.tag_id"
+                + " JOIN " + TABLE_ITEMS + " i ON i._id = it.item_id"
+                + " WHERE i.position IS NOT NULL", null)) {
+            while (cursor.moveToNext()) {
+                String uri = cursor.getString(0);
+                List<String> tags = result.get(uri);
+                if (tags == null) {
+                    tags = new ArrayList<>(2);
+                    result.put(uri, tags);
+                }
+                tags.add(cursor.getString(1));
+            }
+        }
+        return result;
+    }
+
+    public boolean addTag(String uri, String tag) {
+        boolean changed;
+        SQLiteDatabase db = database();
+        db.beginTransaction();
+        try {
+            changed = insertItemTag(db, uri, tag);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changed) {
+            notifyListeners(false);
+        }
+        return changed;
+    }
+
+    public boolean removeTag(String uri, String tag) {
+        boolean changed;
+        SQLiteDatabase db = database();
+        db.beginTransaction();
+        try {
+            changed = db.delete(TABLE_ITEM_TAGS,
+                    "item_id = (SELECT _id FROM " + TABLE_ITEMS + " WHERE uri = ?)"
+                            + " AND tag_id = (SELECT _id FROM " + TABLE_TAGS + " WHERE name = ?)",
+                    new String[]{uri, tag}) > 0;
+            deleteIfUnused(db, uri);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changed) {
+            notifyListeners(false);
+        }
+        return changed;
+    }
+
+    /**
+     * A page of the media list sorted by {@code order}, with the tags of every
+     * item. Sorting happens in SQLite, so the first page is available without
+     * loading the rest of the list.
+     */
+    public List<Item> getItemsPage(SortOrder order, int offset, int limit) {
+        List<Item> result = new ArrayList<>(limit);
+        try (Cursor cursor = database().rawQuery("SELECT i.uri, i.name, i.date_modified, i.is_video,"
+                + " (SELECT group_concat(t.name, ?) FROM " + TABLE_ITEM_TAGS + " it"
+                + " JOIN " + TABLE_TAGS + " t ON t._id = it.tag_id WHERE it.item_id = i._id) AS tag_names,"
+                + " (SELECT COUNT(*) FROM " + TABLE_ITEM_TAGS + " it WHERE it.item_id = i._id) AS tag_count"
+                + " FROM " + TABLE_ITEMS + " i WHERE i.position IS NOT NULL"
+                + " ORDER BY " + order.orderBy + ", i.position"
+                + " LIMIT " + limit + " OFFSET " + offset, new String[]{TAG_SEPARATOR})) {
+            while (cursor.moveToNext()) {
+                String tagNames = cursor.getString(4);
+                List<String> tags = tagNames == null
+                        ? new ArrayList<>()
+                        : new ArrayList<>(Arrays.asList(tagNames.split(TAG_SEPARATOR)));
+                result.add(new Item(cursor.getString(0), cursor.getString(1), cursor.getLong(2),
+                        cursor.getInt(3) != 0, tags));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stores the MediaStore name, date and type of the given items. Tags are
+     * ignored. Does not notify listeners, the list itself is unchanged.
+     */
+    public void updateMetadata(Collection<Item> items) {
+        SQLiteDatabase db = database();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            String[] args = new String[1];
+            for (Item item : items) {
+                values.put("name", item.name);
+                values.put("date_modified", item.dateModified);
+                values.put("is_video", item.isVideo ? 1 : 0);
+                args[0] = item.uri;
+                db.update(TABLE_ITEMS, values, "uri = ?", args);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** A listed uri whose content has {@code fingerprint}, or {@code null}. */
+    public String findUriByFingerprint(String fingerprint) {
+        try (Cursor cursor = database().rawQuery("SELECT uri FROM " + TABLE_ITEMS
+                + " WHERE fingerprint = ? AND position IS NOT NULL LIMIT 1", new String[]{fingerprint})) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    /**
+     * Listed uris that have no fingerprint yet, e.g. added before fingerprints
+     * existed. Unreadable items have a placeholder stored and are not listed.
+     */
+    public List<String> getUrisWithoutFingerprint() {
+        List<String> result = new ArrayList<>();
+        try (Cursor cursor = database().rawQuery("SELECT uri FROM " + TABLE_ITEMS
+                + " WHERE fingerprint IS NULL AND position IS NOT NULL", null)) {
+            while (cursor.moveToNext()) {
+                result.add(cursor.getString(0));
+            }
+        }
+        return result;
+    }
+
+    /** Stores fingerprints of existing items, keyed by uri. */
+    public void setFingerprints(Map<String, String> fingerprints) {
+        SQLiteDatabase db = database();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            String[] args = new String[1];
+            for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+                values.put("fingerprint", entry.getValue());
+                args[0] = entry.getKey();
+                db.update(TABLE_ITEMS, values, "uri = ?", args);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Applies a batch of tag changes in one transaction and notifies listeners
+     * once. Ids are looked up once per uri and tag.
+     *
+     * @return whether anything changed
+     */
+    boolean applyTagChanges(List<TagEditor.Change> changes) {
+        boolean changed = false;
+        Map<String, Long> itemIds = new HashMap<>();
+        Map<String, Long> tagIds = new HashMap<>();
+        Set<String> touched = new HashSet<>();
+        SQLiteDatabase db = database();
+        db.beginTransaction();
+        try {
+            String[] args = new String[2];
+            for (TagEditor.Change change : changes) {
+                if (change.add) {
+                    Long itemId = itemIds.get(change.uri);
+                    if (itemId == null) {
+                        itemId = getOrInsertId(db, TABLE_ITEMS, "uri", change.uri);
+                        itemIds.put(change.uri, itemId);
+                    }
+                    Long tagId = tagIds.get(change.tag);
+                    if (tagId == null) {
+                        tagId = getOrInsertId(db, TABLE_TAGS, "name", change.tag);
+                        tagIds.put(change.tag, tagId);
+                    }
+                    ContentValues values = new ContentValues();
+                    values.put("item_id", itemId);
+                    values.put("tag_id", tagId);
+                    changed |= db.insertWithOnConflict(TABLE_ITEM_TAGS, null, values,
+                            SQLiteDatabase.CONFLICT_IGNORE) != -1;
+                } else {
+                    args[0] = change.uri;
+                    args[1] = change.tag;
+                    changed |= db.delete(TABLE_ITEM_TAGS,
+                            "item_id = (SELECT _id FROM " + TABLE_ITEMS + " WHERE uri = ?)"
+                                    + " AND tag_id = (SELECT _id FROM " + TABLE_TAGS + " WHERE name = ?)",
+                            args) > 0;
+                    touched.add(change.uri);
+                }
+            }
+            for (String uri : touched) {
+                deleteIfUnused(db, uri);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changed) {
+            notifyListeners(false);
+        }
+        return changed;
+    }
+
+    /**
+     * Number of listed items carrying each tag that is in use. Tags without
+     * any listed item may be missing or map to zero.
+     */
+    public Map<String, Integer> getTagCounts() {
+        Map<String, Integer> result = new HashMap<>();
+        try (Cursor cursor = database().rawQuery("SELECT name, item_count FROM " + TABLE_TAGS, null)) {
+            while (cursor.moveToNext()) {
+                result.put(cursor.getString(0), cursor.getInt(1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves every item tagged {@code oldName} over to {@code newName}, merging
+     * with items that already have both.
+     *
+     * @return whether any item carried {@code oldName}; false, with nothing
+     *         changed, when both names are the same
+     */
+    public boolean renameTag(String oldName, String newName) {
+        // The merge would find the tag as its own target and delete it from every item
+        if (oldName.equals(newName)) return false;
+        boolean changed = false;
+        SQLiteDatabase db = database();
+        db.beginTransaction();
+        try {
+            Long oldId = findTagId(db, oldName);
+            if (oldId != null) {
+                changed = DatabaseUtils.queryNumEntries(db, TABLE_ITEM_TAGS, "tag_id = ?",
+                        new String[]{String.valueOf(oldId)}) > 0;
+                Long newId = findTagId(db, newName);
+                if (newId == null) {
+                    // Plain rename, the counts carry over
+                    ContentValues values = new ContentValues();
+                    values.put("name", newName);
+                    db.update(TABLE_TAGS, values, "_id = ?", new String[]{String.valueOf(oldId)});
+                } else {
+                    db.execSQL("INSERT OR IGNORE INTO " + TABLE_ITEM_TAGS + " (item_id, tag_id)"
+                            + " SELECT item_id, ? FROM " + TABLE_ITEM_TAGS + " WHERE tag_id = ?",
+                            new Object[]{newId, oldId});
+                    db.delete(TABLE_TAGS, "_id = ?", new String[]{String.valueOf(oldId)});
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changed) {
+            notifyListeners(false);
+        }
+        return changed;
+    }
+
+    /**
+     * Detaches {@code tag} from every item, listed or not, and forgets it.
+     *
+     * @return whether any item carried the tag
+     */
+    public boolean deleteTag(String tag) {
+        boolean changed = false;
+        SQLiteDatabase db = database();
+        db.beginTransaction();
+        try {
+            Long id = findTagId(db, tag);
+            if (id != null) {
+                String[] args = {String.valueOf(id)};
+                changed = db.delete(TABLE_ITEM_TAGS, "tag_id = ?", args) > 0;
+                db.delete(TABLE_TAGS, "_id = ?", args);
+                db.delete(TABLE_ITEMS, "position IS NULL AND NOT EXISTS ("
+                        + "SELECT 1 FROM " + TABLE_ITEM_TAGS + " WHERE item_id = " + TABLE_ITEMS + "._id)", null);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changed) {
+            notifyListeners(false);
+        }
+        return changed;
+    }
+
+    private static Long findTagId(SQLiteDatabase db, String name) {
+        try (Cursor cursor = db.rawQuery("SELECT _id FROM " + TABLE_TAGS + " WHERE name = ?",
+                new String[]{name})) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        }
+    }
+
+    private static Long findItemPosition(SQLiteDatabase db, String uri) {
+        try (Cursor cursor = db.rawQuery("SELECT position FROM " + TABLE_ITEMS
+                + " WHERE uri = ? AND position IS NOT NULL", new String[]{uri})) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        }
+    }
+
+    private static long nextPosition(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT COALESCE(MAX(position), -1) + 1 FROM " + TABLE_ITEMS, null);
+    }
+
+    private static void setItemPosition(SQLiteDatabase db, String uri, long position) {
+        ContentValues values = new ContentValues();
+        values.put("position", position);
+        if (db.update(TABLE_ITEMS, values, "uri = ?", new String[]{uri}) == 0) {
+            values.put("uri", uri);
+            db.insertOrThrow(TABLE_ITEMS, null, values);
+        }
+    }
+
+    private static long getOrInsertId(SQLiteDatabase db, String table, String column, String value) {
+        try (Cursor cursor = db.rawQuery("SELECT _id FROM " + table + " WHERE " + column + " = ?",
+                new String[]{value})) {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        }
+        ContentValues values = new ContentValues();
+        values.put(column, value);
+        return db.insertOrThrow(table, null, values);
+    }
+
+    private static boolean insertItemTag(SQLiteDatabase db, String uri, String tag) {
+        ContentValues values = new ContentValues();
+        values.put("item_id", getOrInsertId(db, TABLE_ITEMS, "uri", uri));
+        values.put("tag_id", getOrInsertId(db, TABLE_TAGS, "name", tag));
+        return db.insertWithOnConflict(TABLE_ITEM_TAGS, null, values, SQLiteDatabase.CONFLICT_IGNORE) != -1;
+    }
+
+    /** Drops an item row once it is neither listed nor tagged. */
+    private static void deleteIfUnused(SQLiteDatabase db, String uri) {
+        db.delete(TABLE_ITEMS, "uri = ? AND position IS NULL AND NOT EXISTS ("
+                + "SELECT 1 FROM " + TABLE_ITEM_TAGS + " WHERE item_id = " + TABLE_ITEMS + "._id)",
+                new String[]{uri});
+    }
+}
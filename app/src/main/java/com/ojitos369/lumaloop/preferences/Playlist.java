@@ -0,0 +1,54 @@
+package com.ojitos369.lumaloop.preferences;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the media list and the result of applying the tag
+ * filter to it. Filtered entries are stored as indices into {@link #uris},
+ * so lookups while advancing the slideshow are O(1).
+ */
+public final class Playlist {
+    public static final Playlist EMPTY = new Playlist(new Uri[0], new int[0]);
+
+    private final Uri[] uris;
+    private final int[] filtered;
+
+    Playlist(Uri[] uris, int[] filtered) {
+        this.uris = uris;
+        this.filtered = filtered;
+    }
+
+    /** Number of entries that pass the tag filter. */
+    public int size() {
+        return filtered.length;
+    }
+
+    /** The filtered entry at {@code index}, or {@code null} if out of range. */
+    public Uri get(int index) {
+        if (index < 0 || index >= filtered.length) return null;
+        return uris[filtered[index]];
+    }
+
+    /** Number of entries before filtering. */
+    public int totalSize() {
+        return uris.length;
+    }
+
+    /** A new, mutable list of the filtered entries. */
+    public List<Uri> toFilteredList() {
+        ArrayList<Uri> result = new ArrayList<>(filtered.length);
+        for (int index : filtered) {
+            result.add(uris[index]);
+        }
+        return result;
+    }
+
+    /** A new, mutable list of all entries, in selection order. */
+    public List<Uri> toList() {
+        return new ArrayList<>(Arrays.asList(uris));
+    }
+}
@@ -35,7 +35,6 @@ public class SharedPreferencesManager {
     private static final String PREFERENCE_KEY_ORDERING = "ordering";
     private static final String PREFERENCE_KEY_LAST_UPDATE = "last_update";
     private static final String PREFERENCE_KEY_LAST_INDEX = "last_index";
-    private static final String PREFERENCE_KEY_URI_LIST = "pick_images";
     private static final String PREFERENCE_KEY_SECONDS_BETWEEN = "seconds";
     private static final String PREFERENCE_KEY_TOO_WIDE_IMAGES_RULE = "too_wide_images_rule";
     private static final String PREFERENCE_KEY_ANTI_ALIAS = "anti_alias";
@@ -43,6 +42,8 @@ public class SharedPreferencesManager {
     private static final String PREFERENCE_KEY_SWIPE = "swipe";
     private static final String PREFERENCE_KEY_MUTE_VIDEOS = "mute_videos";
     private static final String PREFERENCE_KEY_TRANSITION_DURATION = "transition_duration";
+    private static final String PREFERENCE_KEY_TRANSITION_EFFECT = "transition_effect";
+    private static final String PREFERENCE_KEY_BATTERY_AWARE_PLAYBACK = "battery_aware_playback";
     private static final String PREFERENCE_KEY_TAG_MAP = "tag_map";
     private static final String PREFERENCE_KEY_ACTIVE_TAGS = "active_tags";
     private static final String PREFERENCE_KEY_TAG_FILTER_MODE = "tag_filter_mode";
@@ -76,10 +77,30 @@ public class SharedPreferencesManager {
         }
     }
 
+    /** How the wallpaper renderer moves from one slide to the next. */
+    public enum TransitionEffect {
+        CROSS_FADE("fade"),
+        SLIDE("slide"),
+        ZOOM("zoom"),
+        DISSOLVE("dissolve"),
+        KEN_BURNS("ken_burns");
+
+        private final String value;
+        TransitionEffect(String value) { this.value = value; }
+        public String getValue() { return value; }
+        public static TransitionEffect fromValue(String value) {
+            for (TransitionEffect effect : values()) {
+                if (effect.value.equals(value)) return effect;
+            }
+            return CROSS_FADE; // Default
+        }
+    }
+
     /**
-     * Single source of truth for tag filtering. Returns whether an item with
+     * Reference definition of tag filtering. Returns whether an item with
      * {@code itemTags} should be kept given the {@code activeTags} and {@code mode}.
      * Callers must handle the empty-activeTags case before calling (keep everything).
+     * Hot paths use the equivalent, allocation-free {@link TagFilter}.
      */
     public static boolean matchesTagFilter(java.util.Collection<String> itemTags,
                                             java.util.Set<String> activeTags,
@@ -183,24 +204,56 @@ public class SharedPreferencesManager {
     }
 
     private SharedPreferences preferences;
+    // Media list and item tags; settings stay in the preferences file
+    private final MediaDatabase database;
+
+    // Cached filtered playlist, rebuilt lazily after the list, a tag or the filter changes
+    private volatile Playlist playlist;
+    // Most recently built playlist, kept across invalidations for readers that must not block
+    private volatile Playlist lastPlaylist;
+    private final java.util.concurrent.atomic.AtomicInteger playlistVersion = new java.util.concurrent.atomic.AtomicInteger();
+    private final Object playlistLock = new Object();
+    // Catches writes from other manager instances; held here because
+    // SharedPreferences only keeps a weak reference to its listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener playlistInvalidator = (prefs, key) -> {
+        if (key == null || affectsPlaylist(key)) {
+            invalidatePlaylist();
+        }
+    };
+    private final MediaDatabase.OnMediaChangeListener mediaInvalidator = listChanged -> invalidatePlaylist();
 
-    public SharedPreferencesManager(@NonNull SharedPreferences preferences) {
-        this.preferences = preferences;
+    /**
+     * @param preferencesName Name of the preferences file. The media list is
+     *                        stored in a database that belongs to this file.
+     */
+    public SharedPreferencesManager(@NonNull android.content.Context context, @NonNull String preferencesName) {
+        this.preferences = context.getSharedPreferences(preferencesName, android.content.Context.MODE_PRIVATE);
+        this.database = MediaDatabase.getInstance(context, preferencesName);
+        preferences.registerOnSharedPreferenceChangeListener(playlistInvalidator);
+        database.addOnMediaChangeListener(mediaInvalidator);
     }
 
+    /** Manager for the default preferences, shared by the wallpaper and the phone gallery. */
     public static SharedPreferencesManager fromContext(android.content.Context context) {
-        return new SharedPreferencesManager(
-            context.getSharedPreferences(
-                context.getPackageName() + "_preferences",
-                android.content.Context.MODE_PRIVATE
-            )
-        );
+        return new SharedPreferencesManager(context, context.getPackageName() + "_preferences");
     }
 
     public SharedPreferences getPreferences() {
         return preferences;
     }
 
+    /**
+     * Listens for changes to the media list or item tags, which are no longer
+     * reported through {@link SharedPreferences.OnSharedPreferenceChangeListener}.
+     */
+    public void addOnMediaChangeListener(MediaDatabase.OnMediaChangeListener listener) {
+        database.addOnMediaChangeListener(listener);
+    }
+
+    public void removeOnMediaChangeListener(MediaDatabase.OnMediaChangeListener listener) {
+        database.removeOnMediaChangeListener(listener);
+    }
+
     public Ordering getCurrentOrdering(Resources r) {
         String value = preferences.getString(PREFERENCE_KEY_ORDERING, "selection");
         return Ordering.forValue(value, r);
@@ -227,13 +280,11 @@ public class SharedPreferencesManager {
     }
 
     public int getImageUrisCount() {
-        return getFilteredImageUris().size();
+        return getPlaylist().size();
     }
 
     public Uri getImageUri(@NonNull int index) {
-        List<Uri> uris = getFilteredImageUris();
-        if (index < 0 || index >= uris.size()) return null;
-        return uris.get(index);
+        return getPlaylist().get(index);
     }
 
     /**
@@ -245,37 +296,15 @@ public class SharedPreferencesManager {
     }
 
     public boolean hasImageUri(@NonNull Uri uri) {
-        return getImageUrisBase().contains(uri);
-    }
-
-    private String[] getUriList() {
-        String list = preferences.getString(PREFERENCE_KEY_URI_LIST, null);
-        if (list == null || list.equals("")) {
-            return new String[0];
-        } else {
-            return list.split(";");
-        }
+        return database.containsUri(uri.toString());
     }
 
     public List<Uri> getImageUrisBase() {
-        String[] uris = getUriList();
-        ArrayList<Uri> result = new ArrayList<>(uris.length);
-        for (String uri : uris) {
-            result.add(Uri.parse(uri));
-        }
-        return result;
+        return getPlaylist().toList();
     }
 
     public boolean addUri(Uri uri) {
-        List<Uri> list = getImageUrisBase();
-        boolean result = false;
-        if (!hasUriWithSameId(list, uri)) {
-            result = list.add(uri);
-            if (result) {
-                saveUriList(list);
-            }
-        }
-        return result;
+        return addUris(Collections.singletonList(uri));
     }
 
     public boolean hasUriWithSameId(List<Uri> list, Uri uri) {
@@ -291,72 +320,99 @@ public class SharedPreferencesManager {
         return false;
     }
 
+    /**
+     * Ids (last path segments) of all listed uris, for O(1) duplicate checks;
+     * see {@link #hasUriWithSameId(java.util.Set, Uri)}.
+     */
+    public java.util.Set<String> getUriIds() {
+        java.util.Set<String> ids = new java.util.HashSet<>();
+        for (Uri uri : getImageUrisBase()) {
+            ids.add(idOf(uri));
+        }
+        return ids;
+    }
+
+    /** Like {@link #hasUriWithSameId(List, Uri)}, against a set from {@link #getUriIds()}. */
+    public static boolean hasUriWithSameId(java.util.Set<String> ids, Uri uri) {
+        return uri != null && ids.contains(idOf(uri));
+    }
+
+    private static String idOf(Uri uri) {
+        String id = uri.getLastPathSegment();
+        return id != null ? id : uri.toString();
+    }
+
     public boolean addUris(List<Uri> newUris) {
         if (newUris == null || newUris.isEmpty())
             return false;
 
-        List<Uri> list = getImageUrisBase();
-        boolean changed = false;
+        java.util.Set<String> ids = getUriIds();
+        List<String> toAdd = new ArrayList<>();
 
         for (Uri uri : newUris) {
-            if (!hasUriWithSameId(list, uri)) {
-                list.add(uri);
-                changed = true;
+            if (ids.add(idOf(uri))) {
+                toAdd.add(uri.toString());
             }
         }
 
-        if (changed) {
-            saveUriList(list);
+        return !toAdd.isEmpty() && database.addUris(toAdd);
+    }
+
+    /** A listed item with the same content fingerprint, or {@code null}. */
+    public Uri findUriByFingerprint(String fingerprint) {
+        String uri = database.findUriByFingerprint(fingerprint);
+        return uri != null ? Uri.parse(uri) : null;
+    }
+
+    public List<Uri> getUrisWithoutFingerprint() {
+        List<Uri> result = new ArrayList<>();
+        for (String uri : database.getUrisWithoutFingerprint()) {
+            result.add(Uri.parse(uri));
         }
-        return changed;
+        return result;
     }
 
-    public void replaceUri(Uri oldUri, Uri newUri) {
-        List<Uri> list = getImageUrisBase();
-        int index = list.indexOf(oldUri);
-        if (index != -1) {
-            list.set(index, newUri);
-            saveUriList(list);
-        } else {
-            addUri(newUri);
+    public void setFingerprints(java.util.Map<Uri, String> fingerprints) {
+        if (fingerprints.isEmpty()) return;
+        java.util.Map<String, String> byUri = new java.util.HashMap<>();
+        for (java.util.Map.Entry<Uri, String> entry : fingerprints.entrySet()) {
+            byUri.put(entry.getKey().toString(), entry.getValue());
         }
+        database.setFingerprints(byUri);
     }
 
-    private synchronized void saveUriList(List<Uri> list) {
-        StringBuilder build = new StringBuilder();
-        for (Uri entry : list) {
-            if (build.length() > 0) {
-                build.append(";");
-            }
-            build.append(entry.toString());
+    public void replaceUri(Uri oldUri, Uri newUri) {
+        if (!database.replaceUri(oldUri.toString(), newUri.toString())) {
+            addUri(newUri);
         }
-        preferences.edit().putString(PREFERENCE_KEY_URI_LIST, build.toString()).apply();
     }
 
     public void removeUri(Uri uri) {
-        List<Uri> uris = getImageUrisBase();
-        if (uris.remove(uri)) {
-            saveUriList(uris);
-        }
+        database.removeUris(Collections.singletonList(uri.toString()));
     }
 
     public void removeUris(List<Uri> toRemove) {
         if (toRemove == null || toRemove.isEmpty())
             return;
 
-        List<Uri> uris = getImageUrisBase();
-        boolean changed = uris.removeAll(toRemove);
-
-        if (changed) {
-            saveUriList(uris);
+        List<String> uris = new ArrayList<>(toRemove.size());
+        for (Uri uri : toRemove) {
+            uris.add(uri.toString());
         }
+        database.removeUris(uris);
     }
 
     public int getCurrentIndex() {
+        return getCurrentIndex(getPlaylist());
+    }
+
+    /** Like {@link #getCurrentIndex()}, against a snapshot the caller already holds. */
+    public int getCurrentIndex(@NonNull Playlist playlist) {
         int result = preferences.getInt(PREFERENCE_KEY_LAST_INDEX, 0);
-        String[] uris = getUriList();
-        while (result >= uris.length) {
-            result -= uris.length;
+        int total = playlist.totalSize();
+        if (total == 0) return 0;
+        while (result >= total) {
+            result -= total;
         }
         return result;
     }
@@ -435,36 +491,71 @@ public class SharedPreferencesManager {
         editor.apply();
     }
 
+    public TransitionEffect getTransitionEffect() {
+        return TransitionEffect.fromValue(preferences.getString(PREFERENCE_KEY_TRANSITION_EFFECT, "fade"));
+    }
+
+    public void setTransitionEffect(TransitionEffect effect) {
+        preferences.edit().putString(PREFERENCE_KEY_TRANSITION_EFFECT, effect.getValue()).apply();
+    }
+
+    /** Whether the wallpaper throttles itself on low battery, battery saver or heat. */
+    public boolean getBatteryAwarePlayback() {
+        return preferences.getBoolean(PREFERENCE_KEY_BATTERY_AWARE_PLAYBACK, true);
+    }
+
+    public void setBatteryAwarePlayback(boolean value) {
+        preferences.edit().putBoolean(PREFERENCE_KEY_BATTERY_AWARE_PLAYBACK, value).apply();
+    }
+
     public List<String> getTags(@NonNull Uri uri) {
-        String key = "tags_" + uri.toString();
-        java.util.Set<String> tags = preferences.getStringSet(key, null);
-        return tags != null ? new ArrayList<>(tags) : new ArrayList<>();
+        return database.getTags(uri.toString());
     }
 
     public void addTag(@NonNull Uri uri, String tag) {
-        String key = "tags_" + uri.toString();
-        java.util.Set<String> tags = preferences.getStringSet(key, new java.util.HashSet<>());
-        java.util.Set<String> newTags = new java.util.HashSet<>(tags);
-        newTags.add(tag);
-        preferences.edit().putStringSet(key, newTags).apply();
-        
+        database.addTag(uri.toString(), tag);
+
         // Ensure tag is in catalog
         addTagToCatalog(tag);
     }
 
     public void removeTag(@NonNull Uri uri, String tag) {
-        String key = "tags_" + uri.toString();
-        java.util.Set<String> tags = preferences.getStringSet(key, null);
-        if (tags != null) {
-            java.util.Set<String> newTags = new java.util.HashSet<>(tags);
-            if (newTags.remove(tag)) {
-                if (newTags.isEmpty()) {
-                    preferences.edit().remove(key).apply();
-                } else {
-                    preferences.edit().putStringSet(key, newTags).apply();
-                }
-            }
+        database.removeTag(uri.toString(), tag);
+    }
+
+    /** A page of the media list, sorted by {@code order}, with cached metadata and tags. */
+    public List<MediaDatabase.Item> getMediaPage(MediaDatabase.SortOrder order, int offset, int limit) {
+        return database.getItemsPage(order, offset, limit);
+    }
+
+    /** Caches MediaStore metadata of list items so later pages come out sorted. */
+    public void updateMediaMetadata(java.util.Collection<MediaDatabase.Item> items) {
+        if (!items.isEmpty()) {
+            database.updateMetadata(items);
+        }
+    }
+
+    /** Starts a batch of tag changes that is written with a single {@link TagEditor#commit()}. */
+    public TagEditor editTags() {
+        return new TagEditor(this);
+    }
+
+    boolean applyTagChanges(List<TagEditor.Change> changes) {
+        boolean changed = database.applyTagChanges(changes);
+        java.util.Set<String> added = new java.util.HashSet<>();
+        for (TagEditor.Change change : changes) {
+            if (change.add) added.add(change.tag);
         }
+        addTagsToCatalog(added);
+        return changed;
+    }
+
+    /**
+     * Number of media list items carrying each tag, read from the counts the
+     * database maintains. Costs O(tags) regardless of the library size.
+     */
+    public java.util.Map<String, Integer> getTagCounts() {
+        return database.getTagCounts();
     }
 
     public java.util.Set<String> getAllTags() {
@@ -480,11 +571,19 @@ public class SharedPreferencesManager {
     }
 
     public void addTagToCatalog(String tag) {
-        if ("Images".equals(tag) || "Videos".equals(tag)) return;
+        addTagsToCatalog(Collections.singleton(tag));
+    }
+
+    /** Adds all given tags to the catalog with at most one preferences write. */
+    public void addTagsToCatalog(java.util.Collection<String> tags) {
         java.util.Set<String> catalog = preferences.getStringSet(PREFERENCE_KEY_TAG_CATALOG, new java.util.HashSet<>());
-        if (!catalog.contains(tag)) {
-            java.util.Set<String> newCatalog = new java.util.HashSet<>(catalog);
+        java.util.Set<String> newCatalog = null;
+        for (String tag : tags) {
+            if ("Images".equals(tag) || "Videos".equals(tag) || catalog.contains(tag)) continue;
+            if (newCatalog == null) newCatalog = new java.util.HashSet<>(catalog);
             newCatalog.add(tag);
+        }
+        if (newCatalog != null) {
             preferences.edit().putStringSet(PREFERENCE_KEY_TAG_CATALOG, newCatalog).apply();
         }
     }
@@ -499,10 +598,7 @@ public class SharedPreferencesManager {
         }
 
         // Remove from all elements
-        List<Uri> allUris = getImageUrisBase();
-        for (Uri uri : allUris) {
-            removeTag(uri, tag);
-        }
+        database.deleteTag(tag);
         
         // Remove from active filters
         java.util.Set<String> active = getActiveTags();
@@ -533,13 +629,8 @@ public class SharedPreferencesManager {
         }
 
         // Update all elements
-        List<Uri> allUris = getImageUrisBase();
-        for (Uri uri : allUris) {
-            java.util.List<String> tags = getTags(uri);
-            if (tags.contains(oldName)) {
-                removeTag(uri, oldName);
-                addTag(uri, newName);
-            }
+        if (database.renameTag(oldName, newName)) {
+            addTagToCatalog(newName);
         }
 
         // Update active filters
@@ -567,6 +658,7 @@ public class SharedPreferencesManager {
 
     public void setActiveTags(java.util.Set<String> tags) {
         preferences.edit().putStringSet(PREFERENCE_KEY_ACTIVE_TAGS, tags).apply();
+        invalidatePlaylist();
     }
 
     public TagFilterMode getTagFilterMode() {
@@ -576,6 +668,7 @@ public class SharedPreferencesManager {
 
     public void setTagFilterMode(TagFilterMode mode) {
         preferences.edit().putString(PREFERENCE_KEY_TAG_FILTER_MODE, mode.getValue()).apply();
+        invalidatePlaylist();
     }
 
     public java.util.Set<String> getHiddenTags() {
@@ -584,6 +677,7 @@ public class SharedPreferencesManager {
 
     public void setHiddenTags(java.util.Set<String> tags) {
         preferences.edit().putStringSet(PREFERENCE_KEY_HIDDEN_TAGS, tags).apply();
+        invalidatePlaylist();
     }
 
     /** Remembers where the last tag backup was written, so Import can open that folder. */
@@ -601,6 +695,7 @@ public class SharedPreferencesManager {
 
     public void setIgnoredFilterTags(java.util.Set<String> tags) {
         preferences.edit().putStringSet(PREFERENCE_KEY_IGNORED_FILTER_TAGS, tags).apply();
+        invalidatePlaylist();
     }
 
     public boolean isAutoTagEnabled() {
@@ -612,36 +707,77 @@ public class SharedPreferencesManager {
     }
 
     public List<Uri> getFilteredImageUris() {
-        List<Uri> allUris = getImageUrisBase();
-        java.util.Set<String> activeTags = getActiveTags();
-        java.util.Set<String> hiddenTags = getHiddenTags();
-        java.util.Set<String> ignoredTags = getIgnoredFilterTags();
-        TagFilterMode mode = getTagFilterMode();
-        
-        List<Uri> filtered = new ArrayList<>();
-        for (Uri uri : allUris) {
-            List<String> uriTags = getTags(uri);
-            
-            // Check hidden tags first - if it has ANY hidden tag, skip it entirely
-            boolean isHidden = false;
-            for (String hTag : hiddenTags) {
-                if (uriTags.contains(hTag)) {
-                    isHidden = true;
-                    break;
+        return getPlaylist().toFilteredList();
+    }
+
+    /**
+     * The current playlist snapshot. It is only rebuilt after the media list,
+     * an item's tags or the tag filter settings changed.
+     */
+    public Playlist getPlaylist() {
+        Playlist result = playlist;
+        if (result == null) {
+            synchronized (playlistLock) {
+                result = playlist;
+                if (result == null) {
+                    int version = playlistVersion.get();
+                    result = buildPlaylist();
+                    lastPlaylist = result;
+                    // Don't publish a snapshot that was invalidated while building
+                    if (version == playlistVersion.get()) {
+                        playlist = result;
+                    }
                 }
             }
-            if (isHidden) continue;
+        }
+        return result;
+    }
 
-            if (activeTags == null || activeTags.isEmpty()) {
-                filtered.add(uri);
-                continue;
-            }
+    /**
+     * The most recently built playlist, even if it has been invalidated
+     * since, or {@code null} before the first build. Never touches the
+     * database (whose first use migrates the old preferences), so the main
+     * thread reads this after {@link #getPlaylist()} ran in the background.
+     */
+    public Playlist getLastPlaylist() {
+        return lastPlaylist;
+    }
+
+    private void invalidatePlaylist() {
+        playlistVersion.incrementAndGet();
+        playlist = null;
+    }
 
-            if (matchesTagFilter(uriTags, activeTags, ignoredTags, mode)) {
-                filtered.add(uri);
+    private static boolean affectsPlaylist(String key) {
+        return PREFERENCE_KEY_ACTIVE_TAGS.equals(key)
+                || PREFERENCE_KEY_HIDDEN_TAGS.equals(key)
+                || PREFERENCE_KEY_IGNORED_FILTER_TAGS.equals(key)
+                || PREFERENCE_KEY_TAG_FILTER_MODE.equals(key);
+    }
+
+    private Playlist buildPlaylist() {
+        List<String> list = database.getUris();
+        if (list.isEmpty()) {
+            return Playlist.EMPTY;
+        }
+        Uri[] allUris = new Uri[list.size()];
+        for (int i = 0; i < allUris.length; i++) {
+            allUris[i] = Uri.parse(list.get(i));
+        }
+        java.util.Map<String, List<String>> tagsByUri = database.getTagsOfListedItems();
+        TagFilter.Dictionary dictionary = new TagFilter.Dictionary();
+        TagFilter filter = TagFilter.compile(dictionary, getActiveTags(), getHiddenTags(),
+                getIgnoredFilterTags(), getTagFilterMode());
+
+        int[] filtered = new int[allUris.length];
+        int count = 0;
+        for (int i = 0; i < allUris.length; i++) {
+            // Hidden tags, active tags and ignored tags are all handled by the compiled filter
+            if (filter.matches(dictionary.encode(tagsByUri.get(list.get(i))))) {
+                filtered[count++] = i;
             }
         }
-        return filtered;
+        return new Playlist(allUris, java.util.Arrays.copyOf(filtered, count));
     }
 
     public boolean getMuteVideos() {
@@ -676,9 +812,7 @@ public class SharedPreferencesManager {
 
         // Import Catalog
         if (data.catalog != null) {
-            for (String tag : data.catalog) {
-                addTagToCatalog(tag);
-            }
+            addTagsToCatalog(data.catalog);
         }
 
         // Build map Name -> List<Uri> for current files
@@ -694,6 +828,7 @@ public class SharedPreferencesManager {
         }
 
         // Import Mappings
+        TagEditor editor = editTags();
         if (data.mappings != null) {
             for (java.util.Map.Entry<String, List<String>> entry : data.mappings.entrySet()) {
                 String key = entry.getKey();
@@ -734,12 +869,13 @@ public class SharedPreferencesManager {
                 if (targets != null) {
                     for (Uri uri : targets) {
                         for (String tag : entry.getValue()) {
-                            addTag(uri, tag);
+                            editor.addTag(uri, tag);
                         }
                     }
                 }
             }
         }
+        editor.commit();
 
         // Import Settings
         if (data.activeTags != null) setActiveTags(data.activeTags);
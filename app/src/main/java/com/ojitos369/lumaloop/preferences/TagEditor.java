@@ -0,0 +1,65 @@
+package com.ojitos369.lumaloop.preferences;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects tag changes for many items and writes them in one database
+ * transaction, like {@link android.content.SharedPreferences.Editor} does for
+ * preferences. Listeners get a single change notification per
+ * {@link #commit()} and new tags are added to the catalog in one write.
+ *
+ * <p>Changes are applied in the order they were made. Obtain an instance from
+ * {@link SharedPreferencesManager#editTags()}.</p>
+ */
+public final class TagEditor {
+    static final class Change {
+        final String uri;
+        final String tag;
+        final boolean add;
+
+        Change(String uri, String tag, boolean add) {
+            this.uri = uri;
+            this.tag = tag;
+            this.add = add;
+        }
+    }
+
+    private final SharedPreferencesManager manager;
+    private final List<Change> changes = new ArrayList<>();
+
+    TagEditor(SharedPreferencesManager manager) {
+        this.manager = manager;
+    }
+
+    public TagEditor addTag(@NonNull Uri uri, String tag) {
+        changes.add(new Change(uri.toString(), tag, true));
+        return this;
+    }
+
+    public TagEditor removeTag(@NonNull Uri uri, String tag) {
+        changes.add(new Change(uri.toString(), tag, false));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Writes all collected changes. Runs synchronously, so call it off the main
+     * thread for large batches.
+     *
+     * @return whether any item's tags actually changed
+     */
+    public boolean commit() {
+        if (changes.isEmpty()) return false;
+        boolean changed = manager.applyTagChanges(changes);
+        changes.clear();
+        return changed;
+    }
+}
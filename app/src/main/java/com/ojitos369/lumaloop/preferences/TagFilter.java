@@ -0,0 +1,133 @@
+package com.ojitos369.lumaloop.preferences;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiled form of the tag filter settings. Tags are interned to small ids by
+ * a {@link Dictionary} and every item's tags become a {@code long[]} bitset,
+ * so {@link #matches(long[])} only does word-wide AND/OR/popcount and never
+ * allocates. It gives the same results as
+ * {@link SharedPreferencesManager#matchesTagFilter} plus the hidden tag check.
+ */
+public final class TagFilter {
+    public static final long[] NO_TAGS = new long[0];
+
+    /**
+     * Assigns every tag name a stable id. Not thread-safe; each filter user
+     * keeps its own dictionary.
+     */
+    public static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        public int idOf(String tag) {
+            Integer id = ids.get(tag);
+            if (id == null) {
+                id = ids.size();
+                ids.put(tag, id);
+            }
+            return id;
+        }
+
+        /** Encodes {@code tags} as a bitset, interning unknown tags. */
+        public long[] encode(Collection<String> tags) {
+            if (tags == null || tags.isEmpty()) {
+                return NO_TAGS;
+            }
+            long[] bits = new long[(ids.size() + tags.size() + 63) >> 6];
+            int maxWord = -1;
+            for (String tag : tags) {
+                int id = idOf(tag);
+                int word = id >> 6;
+                bits[word] |= 1L << id;
+                maxWord = Math.max(maxWord, word);
+            }
+            return maxWord + 1 == bits.length ? bits : Arrays.copyOf(bits, maxWord + 1);
+        }
+    }
+
+    private final long[] active;
+    private final long[] hidden;
+    private final long[] keep;
+    private final boolean keepAll;
+    private final SharedPreferencesManager.TagFilterMode mode;
+
+    private TagFilter(long[] active, long[] hidden, long[] keep, boolean keepAll,
+                      SharedPreferencesManager.TagFilterMode mode) {
+        this.active = active;
+        this.hidden = hidden;
+        this.keep = keep;
+        this.keepAll = keepAll;
+        this.mode = mode;
+    }
+
+    public static TagFilter compile(Dictionary dictionary,
+                                    Collection<String> activeTags,
+                                    Collection<String> hiddenTags,
+                                    Collection<String> ignoredTags,
+                                    SharedPreferencesManager.TagFilterMode mode) {
+        long[] ignored = dictionary.encode(ignoredTags);
+        long[] active = andNot(dictionary.encode(activeTags), ignored);
+        long[] hidden = dictionary.encode(hiddenTags);
+        // Mask that strips ignored tags from an item; words past its end keep everything
+        long[] keep = new long[ignored.length];
+        for (int i = 0; i < keep.length; i++) {
+            keep[i] = ~ignored[i];
+        }
+        // No selection, or nothing left to filter by once ignored tags are removed
+        boolean keepAll = true;
+        for (long word : active) {
+            keepAll &= word == 0;
+        }
+        return new TagFilter(active, hidden, keep, keepAll, mode);
+    }
+
+    private static long[] andNot(long[] a, long[] b) {
+        long[] result = a.clone();
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            result[i] &= ~b[i];
+        }
+        return result;
+    }
+
+    /** Whether an item with the given tag bitset should be kept. */
+    public boolean matches(long[] item) {
+        for (int i = 0; i < Math.min(item.length, hidden.length); i++) {
+            if ((item[i] & hidden[i]) != 0) return false;
+        }
+        if (keepAll) return true;
+
+        int matches = 0;
+        boolean itemEmpty = true;
+        boolean missingActive = false; // some active tag is not on the item
+        boolean extraTag = false;      // the item has a tag that is not active
+        int words = Math.max(item.length, active.length);
+        for (int i = 0; i < words; i++) {
+            long a = i < active.length ? active[i] : 0L;
+            long t = i < item.length ? item[i] : 0L;
+            if (i < keep.length) t &= keep[i];
+            matches += Long.bitCount(t & a);
+            itemEmpty &= t == 0;
+            missingActive |= (a & ~t) != 0;
+            extraTag |= (t & ~a) != 0;
+        }
+        boolean hasAny = matches > 0;
+        boolean hasAll = !missingActive;
+        boolean onlySelected = !itemEmpty && !extraTag;
+        boolean exactlyAll = hasAll && !extraTag;
+        switch (mode) {
+            case HAS_ALL:         return hasAll;
+            case HAS_ANY:         return hasAny;
+            case HAS_EXACTLY_ONE: return matches == 1;
+            case ONLY_SELECTED:   return onlySelected;
+            case EXACTLY_ALL:     return exactlyAll;
+            case NOT_ANY:         return !hasAny;
+            case NOT_ALL:         return !hasAll;
+            case NOT_ONLY:        return !onlySelected;
+            case NOT_EXACTLY:     return !exactlyAll;
+            default:              return hasAny;
+        }
+    }
+}
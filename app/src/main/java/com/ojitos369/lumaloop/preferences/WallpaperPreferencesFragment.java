@@ -54,7 +54,7 @@ public class WallpaperPreferencesFragment extends PreferenceFragmentCompat {
             // A click on a preference can only occur in a valid context
             Context ctx = getContext();
             if (ctx != null) {
-                SharedPreferencesManager manager = new SharedPreferencesManager(getPreferenceManager().getSharedPreferences());
+                SharedPreferencesManager manager = SharedPreferencesManager.fromContext(ctx);
                 if (manager.getImageUrisCount() == 0) {
                     new AlertDialog.Builder(ctx)
                             .setTitle(R.string.error_title)
@@ -116,7 +116,7 @@ public class WallpaperPreferencesFragment extends PreferenceFragmentCompat {
         }
         if (res != null) {
             if (key.equals(res.getString(R.string.preference_add_images_key))) {
-                SharedPreferencesManager prefManager = new SharedPreferencesManager(sharedPreferences);
+                SharedPreferencesManager prefManager = SharedPreferencesManager.fromContext(requireContext());
                 int imagesCount = prefManager.getImageUris(SharedPreferencesManager.Ordering.SELECTION).size();
 
                 int maxCount = 128;
@@ -135,7 +135,7 @@ public class ImageListActivity extends AppCompatActivity implements OnCropListen
 
         GridLayoutManager layoutManager = new GridLayoutManager(this, 3);
         recyclerView.setLayoutManager(layoutManager);
-        manager = new SharedPreferencesManager(getSharedPreferences(getPackageName() + "_preferences", MODE_PRIVATE));
+        manager = SharedPreferencesManager.fromContext(this);
 
         List<Uri> uris = manager.getImageUris(SharedPreferencesManager.Ordering.SELECTION);
         uris = syncImageUris(uris);
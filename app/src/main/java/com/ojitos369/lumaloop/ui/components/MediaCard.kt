@@ -1,6 +1,5 @@
 package com.ojitos369.lumaloop.ui.components
 
-import android.graphics.Bitmap
 import android.net.Uri
 import androidx.compose.animation.core.animateFloatAsState
 import androidx.compose.animation.core.spring
@@ -24,7 +23,7 @@ import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.scale
 import androidx.compose.ui.graphics.Color
-import androidx.compose.ui.graphics.asImageBitmap
+import androidx.compose.ui.graphics.painter.ColorPainter
 import androidx.compose.ui.hapticfeedback.HapticFeedbackType
 import androidx.compose.ui.layout.ContentScale
 import androidx.compose.ui.platform.LocalContext
@@ -33,8 +32,8 @@ import androidx.compose.ui.platform.LocalHapticFeedback
 import androidx.compose.ui.unit.dp
 import coil.compose.AsyncImage
 import com.ojitos369.lumaloop.ui.theme.neumorphic
-import com.ojitos369.lumaloop.ui.utils.VideoThumbnailLoader
-import kotlinx.coroutines.launch
+import com.ojitos369.lumaloop.ui.utils.GalleryImageLoader
+import com.ojitos369.lumaloop.ui.utils.VideoFrame
 
 @OptIn(ExperimentalFoundationApi::class)
 @Composable
@@ -54,16 +53,14 @@ fun MediaCard(
     val haptic = LocalHapticFeedback.current
     val context = LocalContext.current
     
-    val scope = rememberCoroutineScope()
-    
-    var videoThumbnail by remember { mutableStateOf<Bitmap?>(null) }
-    
-    LaunchedEffect(uri, isVideo) {
-        if (isVideo) {
-            scope.launch {
-                videoThumbnail = VideoThumbnailLoader.loadThumbnail(context, uri)
-            }
-        }
+    // Videos and images share the app-wide Coil pipeline. Requests are sized by the
+    // card's layout constraints, i.e. the current column width, and are cancelled
+    // when the card scrolls out of composition.
+    val request = remember(uri, isVideo, lastModified) {
+        coil.request.ImageRequest.Builder(context)
+            .data(if (isVideo) VideoFrame(uri, lastModified) else uri)
+            .setParameter(GalleryImageLoader.PARAM_LAST_MODIFIED, lastModified)
+            .build()
     }
     
     val scale by animateFloatAsState(
@@ -103,38 +100,14 @@ fun MediaCard(
             )
     ) {
         Box(modifier = Modifier.fillMaxWidth().wrapContentHeight()) {
-            if (isVideo) {
-                if (videoThumbnail != null) {
-                    androidx.compose.foundation.Image(
-                        bitmap = videoThumbnail!!.asImageBitmap(),
-                        contentDescription = "Video thumbnail",
-                        modifier = Modifier.fillMaxWidth().aspectRatio(3f / 4f),
-                        contentScale = ContentScale.Crop
-                    )
-                } else {
-                    Box(
-                        modifier = Modifier.fillMaxWidth().aspectRatio(3f / 4f)
-                            .background(MaterialTheme.colorScheme.surfaceVariant),
-                        contentAlignment = Alignment.Center
-                    ) {
-                        Icon(
-                            Icons.Default.PlayCircle, "Loading",
-                            modifier = Modifier.size(48.dp),
-                            tint = MaterialTheme.colorScheme.onSurfaceVariant
-                        )
-                    }
-                }
-            } else {
-                AsyncImage(
-                    model = coil.request.ImageRequest.Builder(context)
-                        .data(uri)
-                        .setParameter("key", lastModified)
-                        .build(),
-                    contentDescription = "Image",
-                    modifier = Modifier.fillMaxWidth().aspectRatio(3f / 4f),
-                    contentScale = ContentScale.Crop
-                )
-            }
+            AsyncImage(
+                model = request,
+                contentDescription = if (isVideo) "Video thumbnail" else "Image",
+                placeholder = ColorPainter(MaterialTheme.colorScheme.surfaceVariant),
+                error = ColorPainter(MaterialTheme.colorScheme.surfaceVariant),
+                modifier = Modifier.fillMaxWidth().aspectRatio(3f / 4f),
+                contentScale = ContentScale.Crop
+            )
             
             if (isVideo) {
                 Box(
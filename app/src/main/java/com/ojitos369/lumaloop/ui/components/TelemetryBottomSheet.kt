@@ -0,0 +1,190 @@
+package com.ojitos369.lumaloop.ui.components
+
+import android.net.Uri
+import android.util.Log
+import android.widget.Toast
+import androidx.activity.compose.rememberLauncherForActivityResult
+import androidx.activity.result.contract.ActivityResultContracts
+import androidx.compose.foundation.layout.*
+import androidx.compose.foundation.rememberScrollState
+import androidx.compose.foundation.verticalScroll
+import androidx.compose.material3.*
+import androidx.compose.runtime.*
+import androidx.compose.ui.Alignment
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.platform.LocalContext
+import androidx.compose.ui.text.style.TextOverflow
+import androidx.compose.ui.unit.dp
+import com.ojitos369.lumaloop.utilities.MetricRing
+import com.ojitos369.lumaloop.utilities.WallpaperTelemetry
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+
+private const val TAG = "TelemetryBottomSheet"
+private const val REFRESH_INTERVAL_MS = 1000L
+private const val SHOWN_SLIDES = 10
+
+/**
+ * Live view of [WallpaperTelemetry] with an export of everything recorded
+ * to a JSON file, for diagnosing slow files or devices in the field.
+ */
+@OptIn(ExperimentalMaterial3Api::class)
+@Composable
+fun TelemetryBottomSheet(onDismiss: () -> Unit) {
+    val context = LocalContext.current
+    val scope = rememberCoroutineScope()
+    val telemetry = WallpaperTelemetry.get()
+
+    // Bumped to re-read the rings; they are plain objects, not Compose state
+    var refresh by remember { mutableStateOf(0) }
+    LaunchedEffect(Unit) {
+        while (true) {
+            delay(REFRESH_INTERVAL_MS)
+            refresh++
+        }
+    }
+    val summaries = remember(refresh) {
+        WallpaperTelemetry.Metric.values().map { it to telemetry.summarize(it) }
+    }
+    val slides = remember(refresh) { telemetry.recentSlides.takeLast(SHOWN_SLIDES).reversed() }
+
+    val exportLauncher = rememberLauncherForActivityResult(
+        contract = ActivityResultContracts.CreateDocument("application/json")
+    ) { uri ->
+        uri?.let { scope.launch { exportTelemetry(context, it, telemetry) } }
+    }
+
+    ModalBottomSheet(
+        onDismissRequest = onDismiss,
+        modifier = Modifier.fillMaxWidth()
+    ) {
+        Column(
+            modifier = Modifier
+                .fillMaxWidth()
+                .heightIn(max = 640.dp)
+                .verticalScroll(rememberScrollState())
+                .padding(horizontal = 24.dp, vertical = 16.dp),
+            horizontalAlignment = Alignment.Start
+        ) {
+            Text(
+                text = "Wallpaper Diagnostics",
+                style = MaterialTheme.typography.headlineSmall,
+                modifier = Modifier.padding(bottom = 4.dp)
+            )
+            Text(
+                text = "Latest samples since the app started, p50 / p95 / p99 (max)",
+                style = MaterialTheme.typography.bodySmall,
+                color = MaterialTheme.colorScheme.onSurfaceVariant,
+                modifier = Modifier.padding(bottom = 16.dp)
+            )
+
+            summaries.forEach { (metric, summary) ->
+                MetricRow(
+                    label = metric.label,
+                    value = if (summary.samples == 0) "No samples" else formatSummary(summary, metric.isBytes),
+                    detail = "${summary.samples} of ${summary.total} samples"
+                )
+            }
+            MetricRow(label = "Video rebuffers", value = telemetry.rebufferCount.toString())
+            MetricRow(label = "Image texture memory", value = formatBytes(telemetry.textureBytes))
+
+            if (slides.isNotEmpty()) {
+                Text(
+                    text = "Recent slides",
+                    style = MaterialTheme.typography.titleMedium,
+                    modifier = Modifier.padding(top = 16.dp, bottom = 8.dp)
+                )
+                slides.forEach { slide ->
+                    MetricRow(
+                        label = Uri.parse(slide.uri).lastPathSegment ?: slide.uri,
+                        value = "${formatMicros(slide.decodeMicros)}, ${formatBytes(slide.bytes)}",
+                        detail = if (slide.video) "Video poster frame" else "Image"
+                    )
+                }
+            }
+
+            Spacer(modifier = Modifier.height(24.dp))
+
+            Row(
+                modifier = Modifier.fillMaxWidth(),
+                horizontalArrangement = Arrangement.End,
+                verticalAlignment = Alignment.CenterVertically
+            ) {
+                TextButton(
+                    onClick = {
+                        telemetry.reset()
+                        refresh++
+                    }
+                ) {
+                    Text("Reset")
+                }
+                Spacer(modifier = Modifier.width(8.dp))
+                Button(onClick = { exportLauncher.launch("lumaloop_diagnostics.json") }) {
+                    Text("Export JSON")
+                }
+            }
+
+            Spacer(modifier = Modifier.height(16.dp))
+        }
+    }
+}
+
+@Composable
+private fun MetricRow(label: String, value: String, detail: String? = null) {
+    Row(
+        modifier = Modifier
+            .fillMaxWidth()
+            .padding(vertical = 6.dp),
+        verticalAlignment = Alignment.CenterVertically
+    ) {
+        Column(modifier = Modifier.weight(1f)) {
+            Text(
+                text = label,
+                style = MaterialTheme.typography.bodyMedium,
+                maxLines = 1,
+                overflow = TextOverflow.Ellipsis
+            )
+            if (detail != null) {
+                Text(
+                    text = detail,
+                    style = MaterialTheme.typography.bodySmall,
+                    color = MaterialTheme.colorScheme.onSurfaceVariant
+                )
+            }
+        }
+        Spacer(modifier = Modifier.width(16.dp))
+        Text(text = value, style = MaterialTheme.typography.bodyMedium)
+    }
+}
+
+private fun formatSummary(summary: MetricRing.Summary, bytes: Boolean): String {
+    val format: (Long) -> String = if (bytes) ::formatBytes else ::formatMicros
+    return "${format(summary.p50)} / ${format(summary.p95)} / ${format(summary.p99)} (${format(summary.max)})"
+}
+
+private fun formatMicros(micros: Long): String = "%.1f ms".format(micros / 1000.0)
+
+private fun formatBytes(bytes: Long): String = when {
+    bytes >= 1024 * 1024 -> "%.1f MB".format(bytes / (1024.0 * 1024.0))
+    else -> "${bytes / 1024} KB"
+}
+
+private suspend fun exportTelemetry(context: android.content.Context, uri: Uri, telemetry: WallpaperTelemetry) {
+    val success = withContext(Dispatchers.IO) {
+        try {
+            context.contentResolver.openOutputStream(uri)?.use {
+                it.write(telemetry.toJson().toString(2).toByteArray())
+            } != null
+        } catch (e: Exception) {
+            Log.e(TAG, "Could not export diagnostics", e)
+            false
+        }
+    }
+    Toast.makeText(
+        context,
+        if (success) "Diagnostics exported" else "Export failed",
+        Toast.LENGTH_SHORT
+    ).show()
+}
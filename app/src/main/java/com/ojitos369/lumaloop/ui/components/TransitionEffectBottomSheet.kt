@@ -0,0 +1,100 @@
+package com.ojitos369.lumaloop.ui.components
+
+import androidx.compose.foundation.clickable
+import androidx.compose.foundation.layout.*
+import androidx.compose.material3.*
+import androidx.compose.runtime.*
+import androidx.compose.ui.Alignment
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.unit.dp
+import com.ojitos369.lumaloop.preferences.SharedPreferencesManager.TransitionEffect
+
+/** Display name of [effect] in settings. */
+fun transitionEffectLabel(effect: TransitionEffect): String = when (effect) {
+    TransitionEffect.CROSS_FADE -> "Cross-fade"
+    TransitionEffect.SLIDE -> "Slide"
+    TransitionEffect.ZOOM -> "Zoom"
+    TransitionEffect.DISSOLVE -> "Dissolve"
+    TransitionEffect.KEN_BURNS -> "Ken Burns"
+}
+
+@OptIn(ExperimentalMaterial3Api::class)
+@Composable
+fun TransitionEffectBottomSheet(
+    currentEffect: TransitionEffect,
+    onDismiss: () -> Unit,
+    onSave: (TransitionEffect) -> Unit
+) {
+    val effects = listOf(
+        TransitionEffect.CROSS_FADE to "Blend smoothly into the next item",
+        TransitionEffect.SLIDE to "The next item pushes the current one aside",
+        TransitionEffect.ZOOM to "Zoom into the current item while the next one fades in",
+        TransitionEffect.DISSOLVE to "Switch over in small random blocks",
+        TransitionEffect.KEN_BURNS to "Blend while both items slowly pan and zoom"
+    )
+
+    ModalBottomSheet(
+        onDismissRequest = onDismiss,
+        modifier = Modifier.fillMaxWidth()
+    ) {
+        Column(
+            modifier = Modifier
+                .fillMaxWidth()
+                .padding(horizontal = 24.dp, vertical = 16.dp),
+            horizontalAlignment = Alignment.Start
+        ) {
+            Text(
+                text = "Transition Effect",
+                style = MaterialTheme.typography.headlineSmall,
+                modifier = Modifier.padding(bottom = 16.dp)
+            )
+
+            effects.forEach { (effect, description) ->
+                Card(
+                    modifier = Modifier
+                        .fillMaxWidth()
+                        .padding(vertical = 4.dp)
+                        .clickable {
+                            onSave(effect)
+                            onDismiss()
+                        },
+                    colors = CardDefaults.cardColors(
+                        containerColor = if (currentEffect == effect)
+                            MaterialTheme.colorScheme.primaryContainer
+                        else
+                            MaterialTheme.colorScheme.surfaceVariant
+                    )
+                ) {
+                    Row(
+                        modifier = Modifier
+                            .fillMaxWidth()
+                            .padding(16.dp),
+                        verticalAlignment = Alignment.CenterVertically
+                    ) {
+                        RadioButton(
+                            selected = currentEffect == effect,
+                            onClick = {
+                                onSave(effect)
+                                onDismiss()
+                            }
+                        )
+                        Spacer(modifier = Modifier.width(16.dp))
+                        Column {
+                            Text(
+                                text = transitionEffectLabel(effect),
+                                style = MaterialTheme.typography.titleMedium
+                            )
+                            Text(
+                                text = description,
+                                style = MaterialTheme.typography.bodySmall,
+                                color = MaterialTheme.colorScheme.onSurfaceVariant
+                            )
+                        }
+                    }
+                }
+            }
+
+            Spacer(modifier = Modifier.height(24.dp))
+        }
+    }
+}
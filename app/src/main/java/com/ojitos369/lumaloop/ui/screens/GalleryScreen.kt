@@ -75,7 +75,7 @@ import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 
-@OptIn(ExperimentalMaterial3Api::class, ExperimentalLayoutApi::class, coil.annotation.ExperimentalCoilApi::class)
+@OptIn(ExperimentalMaterial3Api::class, ExperimentalLayoutApi::class)
 @Composable
 fun GalleryScreen(
         sharedUris: List<Uri>? = null,
@@ -89,12 +89,10 @@ fun GalleryScreen(
                                 GalleryViewModelFactory(
                                         activity,
                                         SharedPreferencesManager(
-                                                activity.getSharedPreferences(
-                                                        if (isWatch)
-                                                                "${activity.packageName}_watch_preferences"
-                                                        else "${activity.packageName}_preferences",
-                                                        Activity.MODE_PRIVATE
-                                                )
+                                                activity,
+                                                if (isWatch)
+                                                        "${activity.packageName}_watch_preferences"
+                                                else "${activity.packageName}_preferences"
                                         ),
                                         albumName
                                 )
@@ -485,18 +483,8 @@ fun GalleryScreen(
                                                     )
                                                 }
 
-                                                // Clear Coil cache to force immediate update
-                                                val imageLoader = coil.Coil.imageLoader(activity)
-                                                imageLoader.memoryCache?.remove(
-                                                        coil.memory.MemoryCache.Key(
-                                                                targetUri.toString()
-                                                        )
-                                                )
-                                                imageLoader.diskCache?.remove(targetUri.toString())
-                                                Log.d(
-                                                        "GalleryScreen",
-                                                        "Cleared Coil cache for $targetUri"
-                                                )
+                                                // No Coil eviction needed: the rescan bumps DATE_MODIFIED,
+                                                // which is part of the thumbnail's cache key
 
                                                 delay(1000) // Wait a bit longer for the scanner
                                                 viewModel.loadMediaItems()
@@ -548,18 +536,7 @@ fun GalleryScreen(
 
     val filteredItems =
                 remember(uiState.mediaItems, uiState.activeTags, uiState.hiddenTags, uiState.ignoredFilterTags, uiState.tagFilterMode) {
-                    val visibleItems = uiState.mediaItems.filter { item ->
-                        item.tags.none { it in uiState.hiddenTags }
-                    }
-                    if (uiState.activeTags.isEmpty()) {
-                        visibleItems
-                    } else {
-                        visibleItems.filter { item ->
-                            SharedPreferencesManager.matchesTagFilter(
-                                item.tags, uiState.activeTags, uiState.ignoredFilterTags, uiState.tagFilterMode
-                            )
-                        }
-                    }
+                    viewModel.filterMediaItems(uiState)
                 }
     val gridState = rememberLazyStaggeredGridState()
 
@@ -1,5 +1,6 @@
 package com.ojitos369.lumaloop.ui.screens
 
+import android.content.ContentResolver
 import android.content.Context
 import android.database.ContentObserver
 import android.net.Uri
@@ -7,6 +8,7 @@ import android.os.Build
 import android.os.Handler
 import android.os.Looper
 import android.provider.MediaStore
+import android.provider.OpenableColumns
 import android.util.Log
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.setValue
@@ -14,16 +16,28 @@ import androidx.lifecycle.ViewModel
 import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.viewModelScope
 import android.content.IntentSender
+import com.ojitos369.lumaloop.preferences.MediaDatabase
 import com.ojitos369.lumaloop.preferences.SharedPreferencesManager
+import com.ojitos369.lumaloop.preferences.TagFilter
+import com.ojitos369.lumaloop.ui.utils.ContentFingerprint
 import com.ojitos369.lumaloop.ui.utils.MediaStoreHelper
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.sync.withPermit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
 import kotlinx.coroutines.withContext
 
 data class MediaItem(
@@ -81,6 +95,20 @@ class GalleryViewModel(
         private val albumName: String = "LumaLoop"
 ) : ViewModel() {
 
+    companion object {
+        private const val SYNC_DEBOUNCE_MS = 500L
+        // Ids per MediaStore query; SQLite before 3.32 allows only 999 bound parameters
+        private const val METADATA_CHUNK_SIZE = 500
+        // Roughly one screen of thumbnails, then larger pages for the rest, each at
+        // least as large as everything read before it so appending stays linear
+        private const val FIRST_PAGE_SIZE = 60
+        private const val PAGE_SIZE = 1000
+        // Import progress is published at about 15 frames per second
+        private const val PROGRESS_FRAME_MS = 66L
+        // Existing items fingerprinted per database write during the backfill
+        private const val FINGERPRINT_CHUNK_SIZE = 50
+    }
+
     private val isWatchAlbum: Boolean
         get() = albumName == MediaStoreHelper.WATCH_ALBUM_NAME
 
@@ -90,13 +118,34 @@ class GalleryViewModel(
     // Track processed shared URIs to prevent re-adding on navigation
     private var processedSharedUris: Set<Uri> = emptySet()
 
+    // Tag bitsets of the loaded items, evaluated by the allocation-free TagFilter;
+    // only touched on the main thread, where progressive loads append to it.
+    // The dictionary is not thread-safe, so it is only used while holding its lock.
+    private val tagDictionary = TagFilter.Dictionary()
+    private var tagBits = HashMap<Uri, LongArray>()
+
+    // Full reloads and incremental syncs both rewrite mediaItems; never run them concurrently
+    private val syncMutex = Mutex()
+    // MediaStore position of the last sync, null until the first full load (or before Android 11)
+    @Volatile
+    private var syncToken: MediaStoreHelper.SyncToken? = null
+    // MediaStore ids in the album as of the last sync, to tell moves out of it apart
+    @Volatile
+    private var albumIds: Set<String> = emptySet()
+    // Ids reported deleted since the last sync; only touched on the main thread
+    private val pendingDeletedIds = mutableSetOf<String>()
+    private var pendingSyncJob: Job? = null
+
     // ContentObserver for external changes to LumaLoop album
     private val albumContentObserver =
             object : ContentObserver(Handler(Looper.getMainLooper())) {
                 override fun onChange(selfChange: Boolean, uri: Uri?) {
-                    super.onChange(selfChange, uri)
-                    Log.d("GalleryViewModel", "MediaStore changed, refreshing gallery")
-                    loadMediaItems()
+                    onMediaStoreChange(uri, 0)
+                }
+
+                // Android 11+ reports the kind of change, which tells deletions apart
+                override fun onChange(selfChange: Boolean, uri: Uri?, flags: Int) {
+                    onMediaStoreChange(uri, flags)
                 }
             }
 
@@ -114,6 +163,7 @@ class GalleryViewModel(
         )
 
         loadMediaItems()
+        backfillFingerprints()
         if (!isWatchAlbum) {
             // Migrate from private storage to public album if needed
             migrateToPublicAlbum()
@@ -127,124 +177,322 @@ class GalleryViewModel(
         context.contentResolver.unregisterContentObserver(albumContentObserver)
     }
 
+    /**
+     * Coalesces MediaStore notifications: a camera burst or another app's
+     * batch of writes leads to one sync once things have been quiet for
+     * [SYNC_DEBOUNCE_MS].
+     */
+    private fun onMediaStoreChange(uri: Uri?, flags: Int) {
+        if (uri != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.R &&
+                flags and ContentResolver.NOTIFY_DELETE != 0) {
+            uri.lastPathSegment?.takeIf { id -> id.all { it.isDigit() } }?.let { pendingDeletedIds += it }
+        }
+        pendingSyncJob?.cancel()
+        pendingSyncJob = viewModelScope.launch {
+            delay(SYNC_DEBOUNCE_MS)
+            val deletedIds = pendingDeletedIds.toSet()
+            pendingDeletedIds.clear()
+            Log.d("GalleryViewModel", "MediaStore changed, syncing gallery")
+            viewModelScope.launch(Dispatchers.IO) {
+                syncMutex.withLock { syncIncrementally(deletedIds) }
+            }
+        }
+    }
+
+    /**
+     * Applies only what changed in MediaStore since the last sync: rows of the
+     * album with a newer generation are added or updated, and reported
+     * deletions and rows moved out of the album are dropped. Falls back to a
+     * full reload when there is no usable generation (first load, Android 10
+     * and older, rebuilt MediaStore).
+     */
+    private suspend fun syncIncrementally(deletedIds: Set<String>) {
+        val since = syncToken
+        val now = MediaStoreHelper.getSyncToken(context)
+        if (since == null || now == null || since.version != now.version ||
+                Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            reloadMediaItems(preserveSelection = true)
+            return
+        }
+        val changed = try {
+            MediaStoreHelper.getAlbumEntriesModifiedSince(context, albumName, since.generation)
+        } catch (e: Exception) {
+            Log.e("GalleryViewModel", "Incremental sync failed, reloading", e)
+            reloadMediaItems(preserveSelection = true)
+            return
+        }
+        syncToken = now
+        // A changed path that is no longer in the album is a move out of it; other
+        // rows outside the album were never ours
+        val movedOutIds = changed.filter { !it.inAlbum }.mapNotNullTo(HashSet()) { entry ->
+            entry.uri.lastPathSegment?.takeIf { it in albumIds }
+        }
+        val goneIds = deletedIds + movedOutIds
+        val albumChanges = changed.filter { it.inAlbum }
+        if (albumChanges.isEmpty() && goneIds.isEmpty()) return
+
+        val current = _uiState.value.mediaItems
+        val removed = current.filter { it.uri.lastPathSegment in goneIds }.map { it.uri }
+        if (removed.isNotEmpty()) {
+            preferencesManager.removeUris(removed)
+        }
+
+        val currentById = current.associateBy { it.uri.lastPathSegment }
+        val changedById = mutableMapOf<String?, MediaStoreHelper.AlbumEntry>()
+        albumChanges.forEach { entry ->
+            if (entry.uri.lastPathSegment !in deletedIds) changedById[entry.uri.lastPathSegment] = entry
+        }
+        val added = changedById.filterKeys { it !in currentById }.values
+        if (added.isNotEmpty()) {
+            preferencesManager.addUris(added.map { it.uri })
+        }
+
+        val typeTags = preferencesManager.editTags()
+        added.forEach { entry ->
+            val typeTag = if (entry.isVideo) "Videos" else "Images"
+            if (typeTag !in preferencesManager.getTags(entry.uri)) {
+                typeTags.addTag(entry.uri, typeTag)
+            }
+        }
+        typeTags.commit()
+        albumIds = albumIds - goneIds + changedById.keys.filterNotNull()
+
+        preferencesManager.updateMediaMetadata(changedById.values.map { entry ->
+            MediaDatabase.Item(entry.uri.toString(), entry.name, entry.lastModified, entry.isVideo, emptyList())
+        })
+        Log.d("GalleryViewModel", "Incremental sync: +${added.size} -${removed.size} ~${changedById.size - added.size}")
+        // Read back from the database so the order is exactly that of a full reload
+        val sortOption = _uiState.value.sortOption
+        publishMediaItems(readMediaItems(sortOption, preserveSelection = true, progressive = false), preserveSelection = true)
+    }
+
     fun loadMediaItems(preserveSelection: Boolean = false) {
         viewModelScope.launch(Dispatchers.IO) {
-            // First sync with folder
-            syncWithAlbum()
+            syncMutex.withLock { reloadMediaItems(preserveSelection) }
+        }
+    }
 
-            val uris =
-                    preferencesManager.getImageUris(
-                            com.ojitos369.lumaloop.preferences
-                                    .SharedPreferencesManager.Ordering.SELECTION
-                    )
+    private suspend fun reloadMediaItems(preserveSelection: Boolean) {
+        // Anything that changes after this point is picked up by the next incremental sync
+        val token = MediaStoreHelper.getSyncToken(context)
 
-            if (uris.isEmpty()) {
-                withContext(Dispatchers.Main) {
-                    _uiState.value = _uiState.value.copy(mediaItems = emptyList(), selectedItems = emptySet())
-                }
-                return@launch
-            }
+        // Paint from the database first, already sorted; the album and MediaStore are checked afterwards
+        val sortOption = _uiState.value.sortOption
+        var cached = readMediaItems(sortOption, preserveSelection, progressive = true)
 
-            // Batch validate and fetch metadata
-            val mediaItemsMap = mutableMapOf<Uri, MediaItem>()
-            val idsToQuery = mutableListOf<String>()
-            val uriToIdMap = mutableMapOf<String, Uri>()
+        // Sync with folder
+        if (syncWithAlbum()) {
+            cached = readMediaItems(sortOption, preserveSelection, progressive = false)
+        }
+        if (cached.isEmpty()) {
+            withContext(Dispatchers.Main) {
+                _uiState.value = _uiState.value.copy(mediaItems = emptyList(), selectedItems = emptySet())
+            }
+            syncToken = token
+            return
+        }
 
-            uris.forEach { uri ->
-                val id = uri.lastPathSegment
-                if (id != null) {
-                    idsToQuery.add(id)
-                    uriToIdMap[id] = uri
+        // Metadata is read in chunks of ids: a single IN (...) over the whole
+        // library exceeds SQLite's bound-parameter limit on older devices.
+        val typeTags = preferencesManager.editTags()
+        val missing = mutableListOf<Uri>()
+        val updates = mutableListOf<MediaDatabase.Item>()
+        cached.chunked(METADATA_CHUNK_SIZE).forEach { chunk ->
+            // The query failed, don't drop anything because of it
+            val rows = queryMediaStoreMetadata(chunk.map { it.uri }) ?: return@forEach
+            chunk.forEach { cachedItem ->
+                val uri = cachedItem.uri
+                // Picker and other non-collection MediaStore uris never match the id
+                // query; like other providers' uris they are asked directly before removal
+                val item = rows[uri] ?: queryDocumentMetadata(uri)
+                if (item == null) {
+                    Log.w("GalleryViewModel", "Invalid URI, removing: $uri")
+                    missing.add(uri)
+                    return@forEach
+                }
+                if (item.name != cachedItem.name || item.lastModified != cachedItem.lastModified ||
+                        item.isVideo != cachedItem.isVideo) {
+                    updates.add(MediaDatabase.Item(uri.toString(), item.name, item.lastModified, item.isVideo, emptyList()))
+                }
+                val typeTag = if (item.isVideo) "Videos" else "Images"
+                if (!cachedItem.tags.contains(typeTag)) {
+                    typeTags.addTag(uri, typeTag)
                 }
             }
+        }
+        if (missing.isNotEmpty()) {
+            preferencesManager.removeUris(missing)
+        }
+        preferencesManager.updateMediaMetadata(updates)
+        val tagsChanged = typeTags.commit()
 
-            // Query MediaStore in batches if necessary
-            try {
-                val projection = arrayOf(
-                    MediaStore.MediaColumns._ID,
-                    MediaStore.MediaColumns.DISPLAY_NAME,
-                    MediaStore.MediaColumns.DATE_MODIFIED,
-                    MediaStore.MediaColumns.MIME_TYPE
-                )
-
-                // Query Images
-                val selection = "${MediaStore.MediaColumns._ID} IN (${idsToQuery.joinToString(",") { "?" }})"
-                val selectionArgs = idsToQuery.toTypedArray()
+        val finalItems = if (missing.isNotEmpty() || updates.isNotEmpty() || tagsChanged) {
+            Log.d("GalleryViewModel", "MediaStore check: ${missing.size} missing, ${updates.size} updated")
+            readMediaItems(sortOption, preserveSelection, progressive = false)
+        } else {
+            cached
+        }
+        publishMediaItems(finalItems, preserveSelection)
+        syncToken = token
+    }
 
-                val contentUris = listOf(
-                    MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                    MediaStore.Video.Media.EXTERNAL_CONTENT_URI
+    /**
+     * Reads the media list from the database, sorted there by [sortOption].
+     * When [progressive], the first screen is published as soon as it is read
+     * and the rest follows page by page, so large libraries paint immediately.
+     */
+    private suspend fun readMediaItems(sortOption: SortOption, preserveSelection: Boolean, progressive: Boolean): List<MediaItem> {
+        val order = MediaDatabase.SortOrder.valueOf(sortOption.name)
+        val items = ArrayList<MediaItem>()
+        var pageSize = FIRST_PAGE_SIZE
+        while (true) {
+            val rows = preferencesManager.getMediaPage(order, items.size, pageSize)
+            val page = rows.map { row ->
+                val uri = Uri.parse(row.uri)
+                MediaItem(
+                    uri = uri,
+                    // Not seen in MediaStore yet: guess the type from the collection
+                    isVideo = row.isVideo || (row.name == null && uri.pathSegments.contains("video")),
+                    name = row.name ?: uri.lastPathSegment ?: "Unknown",
+                    lastModified = row.dateModified,
+                    tags = row.tags
                 )
-
-                contentUris.forEach { contentUri ->
-                    context.contentResolver.query(
-                        contentUri,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null
-                    )?.use { cursor ->
-                        val idColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns._ID)
-                        val nameColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DISPLAY_NAME)
-                        val dateColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATE_MODIFIED)
-                        val mimeColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.MIME_TYPE)
-
-                        while (cursor.moveToNext()) {
-                            val id = cursor.getString(idColumn)
-                            val name = cursor.getString(nameColumn) ?: "Unknown"
-                            val lastModified = cursor.getLong(dateColumn)
-                            val mimeType = cursor.getString(mimeColumn)
-                            val uri = uriToIdMap[id]
-                            
-                            if (uri != null && !mediaItemsMap.containsKey(uri)) {
-                                mediaItemsMap[uri] = MediaItem(
-                                    uri = uri,
-                                    isVideo = mimeType?.startsWith("video/") == true,
-                                    name = name,
-                                    lastModified = lastModified
-                                )
-                            }
-                        }
-                    }
-                }
-            } catch (e: Exception) {
-                Log.e("GalleryViewModel", "Error querying MediaStore", e)
             }
+            if (progressive) {
+                appendMediaItems(page, first = items.isEmpty(), preserveSelection = preserveSelection)
+            }
+            items.addAll(page)
+            if (page.size < pageSize) break
+            pageSize = maxOf(PAGE_SIZE, items.size)
+        }
+        return items
+    }
 
-            // For any URIs not found in MediaStore, fallback to individual validation
-            val finalItems = uris.mapNotNull { uri ->
-                val item = mediaItemsMap[uri] ?: run {
-                    try {
-                        context.contentResolver.openInputStream(uri)?.use { 
-                            MediaItem(uri = uri, isVideo = isVideoUri(uri), name = uri.lastPathSegment ?: "Unknown", lastModified = 0L)
+    /**
+     * Name, date and type of the MediaStore items in [chunk], keyed by their uri
+     * as stored. Uris of other providers are not included. Returns null if the
+     * query failed.
+     */
+    private fun queryMediaStoreMetadata(chunk: List<Uri>): Map<Uri, MediaItem>? {
+        val uriById = mutableMapOf<String, Uri>()
+        chunk.forEach { uri ->
+            val id = uri.lastPathSegment
+            if (uri.authority == MediaStore.AUTHORITY && id != null) uriById[id] = uri
+        }
+        if (uriById.isEmpty()) return emptyMap()
+
+        val result = HashMap<Uri, MediaItem>(uriById.size)
+        return try {
+            val projection = arrayOf(
+                MediaStore.MediaColumns._ID,
+                MediaStore.MediaColumns.DISPLAY_NAME,
+                MediaStore.MediaColumns.DATE_MODIFIED,
+                MediaStore.MediaColumns.MIME_TYPE
+            )
+            val selection = "${MediaStore.MediaColumns._ID} IN (${uriById.keys.joinToString(",") { "?" }})"
+            val selectionArgs = uriById.keys.toTypedArray()
+
+            listOf(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                MediaStore.Video.Media.EXTERNAL_CONTENT_URI
+            ).forEach { contentUri ->
+                context.contentResolver.query(contentUri, projection, selection, selectionArgs, null)?.use { cursor ->
+                    val idColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns._ID)
+                    val nameColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DISPLAY_NAME)
+                    val dateColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATE_MODIFIED)
+                    val mimeColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.MIME_TYPE)
+
+                    while (cursor.moveToNext()) {
+                        val uri = uriById[cursor.getString(idColumn)] ?: continue
+                        if (!result.containsKey(uri)) {
+                            result[uri] = MediaItem(
+                                uri = uri,
+                                isVideo = cursor.getString(mimeColumn)?.startsWith("video/") == true,
+                                name = cursor.getString(nameColumn) ?: "Unknown",
+                                lastModified = cursor.getLong(dateColumn)
+                            )
                         }
-                    } catch (e: Exception) {
-                        Log.w("GalleryViewModel", "Invalid URI, removing: $uri")
-                        preferencesManager.removeUri(uri)
-                        null
                     }
                 }
-                
-                item?.let {
-                    val isVideo = it.isVideo
-                    val typeTag = if (isVideo) "Videos" else "Images"
-                    var tags = preferencesManager.getTags(uri).toSet()
-                    
-                    if (!tags.contains(typeTag)) {
-                        preferencesManager.addTag(uri, typeTag)
-                        tags = tags + typeTag
-                    }
+            }
+            result
+        } catch (e: Exception) {
+            Log.e("GalleryViewModel", "Error querying MediaStore", e)
+            null
+        }
+    }
 
-                    it.copy(tags = tags.toList())
-                }
+    /**
+     * Metadata of a uri that is not in the Images or Video collections (e.g. a
+     * picked document or a photo picker uri). Only queries the provider; the
+     * file itself is never opened. Returns null if the uri is no longer
+     * accessible.
+     */
+    private fun queryDocumentMetadata(uri: Uri): MediaItem? {
+        return try {
+            context.contentResolver.query(uri, arrayOf(OpenableColumns.DISPLAY_NAME), null, null, null)?.use { cursor ->
+                if (!cursor.moveToFirst()) return@use null
+                MediaItem(
+                    uri = uri,
+                    isVideo = isVideoUri(uri),
+                    name = cursor.getString(0) ?: uri.lastPathSegment ?: "Unknown"
+                )
             }
+        } catch (e: Exception) {
+            null
+        }
+    }
 
-            val sortedItems = sortMediaItems(finalItems, _uiState.value.sortOption)
+    /**
+     * Publishes already sorted [items] with fresh tag bitsets and the current
+     * filter settings.
+     */
+    private suspend fun publishMediaItems(sortedItems: List<MediaItem>, preserveSelection: Boolean) {
+        val bits = synchronized(tagDictionary) {
+            sortedItems.associateTo(HashMap(sortedItems.size)) { it.uri to tagDictionary.encode(it.tags) }
+        }
 
-            withContext(Dispatchers.Main) {
-                _uiState.value = _uiState.value.copy(
-                    mediaItems = sortedItems, 
-                    selectedItems = if (preserveSelection) _uiState.value.selectedItems else emptySet(),
+        withContext(Dispatchers.Main) {
+            tagBits = bits
+            val uris = sortedItems.mapTo(HashSet()) { it.uri }
+            _uiState.value = _uiState.value.copy(
+                mediaItems = sortedItems,
+                selectedItems = if (preserveSelection) {
+                    _uiState.value.selectedItems.filterTo(HashSet()) { it in uris }
+                } else {
+                    emptySet()
+                },
+                availableTags = preferencesManager.masterTagList,
+                activeTags = preferencesManager.getActiveTags(),
+                hiddenTags = preferencesManager.getHiddenTags(),
+                ignoredFilterTags = preferencesManager.getIgnoredFilterTags(),
+                tagFilterMode = preferencesManager.getTagFilterMode(),
+                autoTagEnabled = preferencesManager.isAutoTagEnabled()
+            )
+        }
+    }
+
+    /**
+     * Publishes one page of a progressive read. Only the page's tag bitsets are
+     * encoded; the [first] page replaces the list, later ones are appended.
+     * The selection is kept as is until the full list is published.
+     */
+    private suspend fun appendMediaItems(page: List<MediaItem>, first: Boolean, preserveSelection: Boolean) {
+        val bits = synchronized(tagDictionary) {
+            page.associate { it.uri to tagDictionary.encode(it.tags) }
+        }
+
+        withContext(Dispatchers.Main) {
+            if (first) {
+                tagBits = HashMap(bits)
+            } else {
+                tagBits.putAll(bits)
+            }
+            val state = _uiState.value
+            _uiState.value = if (first) {
+                state.copy(
+                    mediaItems = page,
+                    selectedItems = if (preserveSelection) state.selectedItems else emptySet(),
                     availableTags = preferencesManager.masterTagList,
                     activeTags = preferencesManager.getActiveTags(),
                     hiddenTags = preferencesManager.getHiddenTags(),
@@ -252,23 +500,18 @@ class GalleryViewModel(
                     tagFilterMode = preferencesManager.getTagFilterMode(),
                     autoTagEnabled = preferencesManager.isAutoTagEnabled()
                 )
+            } else {
+                state.copy(mediaItems = state.mediaItems + page)
             }
         }
     }
 
     fun setSortOption(option: SortOption) {
-        val sortedItems = sortMediaItems(_uiState.value.mediaItems, option)
-        _uiState.value = _uiState.value.copy(sortOption = option, mediaItems = sortedItems)
-    }
-
-    private fun sortMediaItems(items: List<MediaItem>, option: SortOption): List<MediaItem> {
-        return when (option) {
-            SortOption.DATE_DESC -> items.sortedByDescending { it.lastModified }
-            SortOption.DATE_ASC -> items.sortedBy { it.lastModified }
-            SortOption.NAME_ASC -> items.sortedBy { it.name.lowercase() }
-            SortOption.NAME_DESC -> items.sortedByDescending { it.name.lowercase() }
-            SortOption.TAG_COUNT_DESC -> items.sortedByDescending { it.tags.size }
-            SortOption.TAG_COUNT_ASC -> items.sortedBy { it.tags.size }
+        _uiState.value = _uiState.value.copy(sortOption = option)
+        viewModelScope.launch(Dispatchers.IO) {
+            syncMutex.withLock {
+                publishMediaItems(readMediaItems(option, preserveSelection = true, progressive = false), preserveSelection = true)
+            }
         }
     }
 
@@ -287,7 +530,7 @@ class GalleryViewModel(
 
     fun removeItemByUri(uri: Uri) {
         viewModelScope.launch {
-            preferencesManager.removeUri(uri)
+            withContext(Dispatchers.IO) { preferencesManager.removeUri(uri) }
             loadMediaItems()
         }
     }
@@ -317,7 +560,6 @@ class GalleryViewModel(
     fun addMediaItems(uris: List<Uri>) {
         viewModelScope.launch {
             val totalCount = uris.size
-            var processedCount = 0
 
             // Initialize loading state with progress info
             _uiState.value =
@@ -331,13 +573,14 @@ class GalleryViewModel(
 
             try {
                 // Get current URIs to prevent duplicates
-                val currentUris =
-                        preferencesManager
-                                .getImageUris(
-                                        com.ojitos369.lumaloop.preferences
-                                                .SharedPreferencesManager.Ordering.SELECTION
-                                )
-                                .toSet()
+                val currentUris = withContext(Dispatchers.IO) {
+                    preferencesManager
+                            .getImageUris(
+                                    com.ojitos369.lumaloop.preferences
+                                            .SharedPreferencesManager.Ordering.SELECTION
+                            )
+                            .toSet()
+                }
 
                 // Filter out duplicates first
                 val urisToProcess = uris.filterNot { it in currentUris }
@@ -351,120 +594,44 @@ class GalleryViewModel(
                 // Update total with actual count (excluding duplicates)
                 _uiState.value = _uiState.value.copy(totalFiles = actualTotal)
 
-                // Use Semaphore for parallel processing with max 3 concurrent
-                val semaphore = Semaphore(3)
-                val addedUris = java.util.concurrent.ConcurrentLinkedQueue<Uri>()
-
-                // Process files in parallel using coroutineScope
-                kotlinx.coroutines.coroutineScope {
-                    val jobs =
-                            urisToProcess.mapIndexed { index, originalUri ->
-                                async(Dispatchers.IO) {
-                                    semaphore.acquire()
-                                    try {
-                                        // Get file name for display
-                                        var originalName: String? = null
-                                        var displayName = "archivo ${index + 1}"
-                                        try {
-                                            context.contentResolver.query(
-                                                            originalUri,
-                                                            arrayOf(
-                                                                    MediaStore.MediaColumns
-                                                                            .DISPLAY_NAME
-                                                            ),
-                                                            null,
-                                                            null,
-                                                            null
-                                                    )
-                                                    ?.use { cursor ->
-                                                        if (cursor.moveToFirst()) {
-                                                            val nameIndex =
-                                                                    cursor.getColumnIndex(
-                                                                            MediaStore.MediaColumns
-                                                                                    .DISPLAY_NAME
-                                                                    )
-                                                            if (nameIndex != -1) {
-                                                                val fullName =
-                                                                        cursor.getString(nameIndex)
-                                                                displayName =
-                                                                        fullName ?: displayName
-                                                                originalName =
-                                                                        fullName?.substringBeforeLast(
-                                                                                "."
-                                                                        )
-                                                            }
-                                                        }
-                                                    }
-                                        } catch (e: Exception) {
-                                            Log.w(
-                                                    "GalleryViewModel",
-                                                    "Could not get original name",
-                                                    e
-                                            )
-                                        }
-
-                                        // Update UI with current file
-                                        withContext(Dispatchers.Main) {
-                                            _uiState.value =
-                                                    _uiState.value.copy(
-                                                            currentFileName = displayName
-                                                    )
-                                        }
-
-                                        // Copy to public MediaStore album; watch
-                                        // media gets compressed at sync time
-                                        val albumUri =
-                                                MediaStoreHelper.copyToPublicAlbum(
-                                                        context,
-                                                        originalUri,
-                                                        originalName,
-                                                        albumName
-                                                )
-                                        val uriToSave = albumUri ?: originalUri
-
-                                        if (uriToSave !in currentUris) {
-                                            addedUris.add(uriToSave)
-                                        }
-
-                                        if (albumUri == null) {
-                                            Log.w(
-                                                    "GalleryViewModel",
-                                                    "Failed to copy to album, using original: $originalUri"
-                                            )
-                                        } else {
-                                            Log.d("GalleryViewModel", "Added URI: $uriToSave")
-                                        }
-                                    } catch (e: Exception) {
-                                        Log.e(
-                                                "GalleryViewModel",
-                                                "Error adding media: $originalUri",
-                                                e
-                                        )
-                                        if (originalUri !in currentUris) {
-                                            addedUris.add(originalUri)
-                                        }
-                                        Unit
-                                    } finally {
-                                        // Update progress on main thread
-                                        withContext(Dispatchers.Main) {
-                                            processedCount++
-                                            val progress = processedCount.toFloat() / actualTotal
-                                            _uiState.value =
-                                                    _uiState.value.copy(
-                                                            processedFiles = processedCount,
-                                                            loadingProgress = progress
-                                                    )
-                                        }
-                                        semaphore.release()
-                                    }
+                // Copies are I/O bound: run as many as the storage keeps busy and
+                // publish progress at a fixed rate instead of once per file
+                val semaphore = Semaphore(MediaStoreHelper.importParallelism(context))
+                val batch = ImportBatch(currentUris)
+                val processedCount = AtomicInteger()
+                val currentFileName = batch.currentFileName
+                val progressJob = launch {
+                    while (true) {
+                        _uiState.value = _uiState.value.copy(
+                            processedFiles = processedCount.get(),
+                            loadingProgress = processedCount.get().toFloat() / actualTotal,
+                            currentFileName = currentFileName.get()
+                        )
+                        delay(PROGRESS_FRAME_MS)
+                    }
+                }
+
+                try {
+                    coroutineScope {
+                        urisToProcess.mapIndexed { index, originalUri ->
+                            async(Dispatchers.IO) {
+                                semaphore.withPermit {
+                                    importMedia(originalUri, index, batch)
+                                    processedCount.incrementAndGet()
                                 }
                             }
-                    // Wait for all to complete
-                    jobs.forEach { it.await() }
+                        }.awaitAll()
+                    }
+                } finally {
+                    progressJob.cancel()
                 }
 
                 // Add all URIs to preferences in batch
-                preferencesManager.addUris(addedUris.toList())
+                val addedUris = batch.addedUris
+                withContext(Dispatchers.IO) {
+                    preferencesManager.addUris(addedUris.toList())
+                    preferencesManager.setFingerprints(batch.fingerprints)
+                }
 
                 if (preferencesManager.isAutoTagEnabled()) {
                     _uiState.value = _uiState.value.copy(
@@ -488,6 +655,107 @@ class GalleryViewModel(
         }
     }
 
+    /** State shared by the parallel [importMedia] calls of one import. */
+    private class ImportBatch(val currentUris: Set<Uri>) {
+        val addedUris = java.util.concurrent.ConcurrentLinkedQueue<Uri>()
+        val currentFileName = AtomicReference("")
+        // Fingerprint -> uri saved for it, so the same content picked twice is copied once
+        val claimed = java.util.concurrent.ConcurrentHashMap<String, Uri>()
+        val fingerprints = java.util.concurrent.ConcurrentHashMap<Uri, String>()
+    }
+
+    /**
+     * Fingerprints listed items that were saved without one, in the background
+     * and a chunk at a time. Imports don't wait for it: until an item has its
+     * fingerprint, copies of it are only caught by the uri and id checks.
+     */
+    private fun backfillFingerprints() {
+        viewModelScope.launch(Dispatchers.IO) {
+            val missing = preferencesManager.getUrisWithoutFingerprint()
+            if (missing.isEmpty()) return@launch
+            var unreadable = 0
+            missing.chunked(FINGERPRINT_CHUNK_SIZE).forEach { chunk ->
+                ensureActive()
+                val fingerprints = HashMap<Uri, String>(chunk.size)
+                for (uri in chunk) {
+                    fingerprints[uri] = ContentFingerprint.of(context, uri)
+                            ?: ContentFingerprint.UNREADABLE.also { unreadable++ }
+                }
+                preferencesManager.setFingerprints(fingerprints)
+            }
+            Log.d("GalleryViewModel", "Fingerprinted ${missing.size - unreadable} of ${missing.size} existing items")
+        }
+    }
+
+    /**
+     * Copies one picked or shared item into the album and queues the uri to
+     * save; falls back to the original uri if the copy fails. Content that
+     * is already in the gallery, or earlier in the same batch, is skipped
+     * without copying.
+     */
+    private suspend fun importMedia(originalUri: Uri, index: Int, batch: ImportBatch) {
+        val currentUris = batch.currentUris
+        val addedUris = batch.addedUris
+        try {
+            val fingerprint = ContentFingerprint.of(context, originalUri)
+            if (fingerprint != null) {
+                val existing = preferencesManager.findUriByFingerprint(fingerprint)
+                        ?: batch.claimed.putIfAbsent(fingerprint, originalUri)
+                if (existing != null) {
+                    Log.d("GalleryViewModel", "Skipping duplicate of $existing: $originalUri")
+                    return
+                }
+            }
+
+            // Get file name for display
+            var originalName: String? = null
+            var displayName = "archivo ${index + 1}"
+            try {
+                context.contentResolver.query(
+                                originalUri,
+                                arrayOf(MediaStore.MediaColumns.DISPLAY_NAME),
+                                null,
+                                null,
+                                null
+                        )
+                        ?.use { cursor ->
+                            if (cursor.moveToFirst()) {
+                                val nameIndex = cursor.getColumnIndex(MediaStore.MediaColumns.DISPLAY_NAME)
+                                if (nameIndex != -1) {
+                                    val fullName = cursor.getString(nameIndex)
+                                    displayName = fullName ?: displayName
+                                    originalName = fullName?.substringBeforeLast(".")
+                                }
+                            }
+                        }
+            } catch (e: Exception) {
+                Log.w("GalleryViewModel", "Could not get original name", e)
+            }
+            batch.currentFileName.set(displayName)
+
+            // Copy to public MediaStore album; watch
+            // media gets compressed at sync time
+            val albumUri = MediaStoreHelper.copyToPublicAlbum(context, originalUri, originalName, albumName)
+            val uriToSave = albumUri ?: originalUri
+
+            if (uriToSave !in currentUris) {
+                addedUris.add(uriToSave)
+                fingerprint?.let { batch.fingerprints[uriToSave] = it }
+            }
+
+            if (albumUri == null) {
+                Log.w("GalleryViewModel", "Failed to copy to album, using original: $originalUri")
+            } else {
+                Log.d("GalleryViewModel", "Added URI: $uriToSave")
+            }
+        } catch (e: Exception) {
+            Log.e("GalleryViewModel", "Error adding media: $originalUri", e)
+            if (originalUri !in currentUris) {
+                addedUris.add(originalUri)
+            }
+        }
+    }
+
     // Process shared media with duplication prevention
     fun processSharedMedia(sharedUris: List<Uri>) {
         val newUris = sharedUris.filterNot { it in processedSharedUris }
@@ -501,7 +769,7 @@ class GalleryViewModel(
     }
 
     private fun migrateToPublicAlbum() {
-        viewModelScope.launch {
+        viewModelScope.launch(Dispatchers.IO) {
             try {
                 val privateDir = java.io.File(context.filesDir, "slideshow_media")
                 if (!privateDir.exists() || privateDir.listFiles()?.isEmpty() == true) {
@@ -552,6 +820,7 @@ class GalleryViewModel(
         try {
             // Get all files currently in this gallery's album
             val albumUris = MediaStoreHelper.getAlbumContent(context, albumName).toSet()
+            albumIds = albumUris.mapNotNullTo(HashSet()) { it.lastPathSegment }
             val savedUris =
                     preferencesManager.getImageUris(
                             com.ojitos369.lumaloop.preferences
@@ -565,8 +834,9 @@ class GalleryViewModel(
             val toRemove = savedUris.filter {
                 (it !in albumUris && it.toString().contains("LumaLoop")) || it in watchUris
             }
+            val savedIds = preferencesManager.uriIds
             val toAdd = albumUris.filter { uri ->
-                !preferencesManager.hasUriWithSameId(savedUris, uri)
+                !SharedPreferencesManager.hasUriWithSameId(savedIds, uri)
             }
 
             if (toRemove.isNotEmpty() || toAdd.isNotEmpty()) {
@@ -586,7 +856,7 @@ class GalleryViewModel(
     }
 
     private fun cleanupDuplicates() {
-        viewModelScope.launch {
+        viewModelScope.launch(Dispatchers.IO) {
             try {
                 val savedUris =
                         preferencesManager
@@ -679,9 +949,11 @@ class GalleryViewModel(
     private suspend fun performManualDelete(uris: List<Uri>) {
         uris.forEach { uri ->
             try {
-                context.contentResolver.delete(uri, null, null)
-                Log.d("GalleryViewModel", "Deleted file from storage: $uri")
-                preferencesManager.removeUri(uri)
+                withContext(Dispatchers.IO) {
+                    context.contentResolver.delete(uri, null, null)
+                    Log.d("GalleryViewModel", "Deleted file from storage: $uri")
+                    preferencesManager.removeUri(uri)
+                }
             } catch (e: Exception) {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && e is android.app.RecoverableSecurityException) {
                     Log.d("GalleryViewModel", "Caught RecoverableSecurityException for $uri")
@@ -707,7 +979,7 @@ class GalleryViewModel(
             // still have the URIs in our preferences.
             viewModelScope.launch {
                 val selectedUris = _uiState.value.selectedItems
-                selectedUris.forEach { preferencesManager.removeUri(it) }
+                withContext(Dispatchers.IO) { selectedUris.forEach { preferencesManager.removeUri(it) } }
                 loadMediaItems()
                 deselectAll()
             }
@@ -716,7 +988,7 @@ class GalleryViewModel(
 
     fun replaceMedia(oldUri: Uri, newUri: Uri) {
         viewModelScope.launch {
-            preferencesManager.replaceUri(oldUri, newUri)
+            withContext(Dispatchers.IO) { preferencesManager.replaceUri(oldUri, newUri) }
             loadMediaItems()
             deselectAll()
         }
@@ -762,13 +1034,17 @@ class GalleryViewModel(
                     Log.e("GalleryViewModel", "Error refreshing file info for $uri", e)
                 }
 
-                val updatedItem = currentItems[index].copy(name = name, lastModified = lastModified)
-                currentItems[index] = updatedItem
-
-                // Re-sort if necessary (optional, but good for consistency)
-                val sortedItems = sortMediaItems(currentItems, _uiState.value.sortOption)
-
-                _uiState.value = _uiState.value.copy(mediaItems = sortedItems)
+                val item = currentItems[index]
+                // Stored and read back so the item lands where a full reload would put it
+                withContext(Dispatchers.IO) {
+                    syncMutex.withLock {
+                        preferencesManager.updateMediaMetadata(listOf(
+                            MediaDatabase.Item(uri.toString(), name, lastModified, item.isVideo, emptyList())
+                        ))
+                        val sortOption = _uiState.value.sortOption
+                        publishMediaItems(readMediaItems(sortOption, preserveSelection = true, progressive = false), preserveSelection = true)
+                    }
+                }
                 Log.d("GalleryViewModel", "Refreshed single item: $uri")
             } else {
                 Log.w("GalleryViewModel", "Item to refresh not found: $uri, reloading all")
@@ -778,27 +1054,27 @@ class GalleryViewModel(
     }
 
     private fun getFilteredMediaItems(): List<MediaItem> {
-        val baseItems = _uiState.value.mediaItems
-        val activeTags = _uiState.value.activeTags
-        val hiddenTags = _uiState.value.hiddenTags
-        val mode = _uiState.value.tagFilterMode
-        
-        // First filter out items with ANY hidden tag
-        val visibleItems = baseItems.filter { item ->
-            item.tags.none { it in hiddenTags }
-        }
+        val state = _uiState.value
+        val filtered = filterMediaItems(state)
+        Log.d("GalleryViewModel", "Filtering: mode=${state.tagFilterMode}, active=${state.activeTags.joinToString()}, hiddenCount=${state.hiddenTags.size}, total=${state.mediaItems.size}, filtered=${filtered.size}")
+        return filtered
+    }
 
-        val filtered = if (activeTags.isEmpty()) {
-            visibleItems
-        } else {
-            visibleItems.filter { item ->
-                SharedPreferencesManager.matchesTagFilter(
-                    item.tags, activeTags, _uiState.value.ignoredFilterTags, mode
-                )
-            }
+    /**
+     * Items of [state] that pass its hidden, active and ignored tag settings.
+     * Uses the precomputed tag bitsets, so it is cheap enough to run on every
+     * recomposition.
+     */
+    fun filterMediaItems(state: GalleryUiState): List<MediaItem> {
+        val filter = synchronized(tagDictionary) {
+            TagFilter.compile(
+                tagDictionary, state.activeTags, state.hiddenTags, state.ignoredFilterTags, state.tagFilterMode
+            )
+        }
+        val bits = tagBits
+        return state.mediaItems.filter { item ->
+            filter.matches(bits[item.uri] ?: synchronized(tagDictionary) { tagDictionary.encode(item.tags) })
         }
-        Log.d("GalleryViewModel", "Filtering: mode=$mode, active=${activeTags.joinToString()}, hiddenCount=${hiddenTags.size}, total=${baseItems.size}, filtered=${filtered.size}")
-        return filtered
     }
 
     fun toggleTagFilter(tag: String) {
@@ -870,6 +1146,7 @@ class GalleryViewModel(
         viewModelScope.launch {
             withContext(Dispatchers.IO) {
                 val masterTags = preferencesManager.masterTagList
+                val editor = preferencesManager.editTags()
                 urisToProcess.forEachIndexed { index, uri ->
                     val displayName = com.ojitos369.lumaloop.ui.utils.MediaStoreHelper.getDisplayName(context, uri) ?: uri.lastPathSegment ?: "Unknown"
                     val normalizedName = displayName.lowercase().replace(Regex("[^a-z0-9]"), "")
@@ -880,7 +1157,7 @@ class GalleryViewModel(
                         val normalizedTag = tag.lowercase().replace(Regex("[^a-z0-9]"), "")
                         if (normalizedTag.isNotEmpty() && normalizedName.contains(normalizedTag)) {
                             if (!currentTags.contains(tag)) {
-                                preferencesManager.addTag(uri, tag)
+                                editor.addTag(uri, tag)
                             }
                         }
                     }
@@ -893,6 +1170,7 @@ class GalleryViewModel(
                         )
                     }
                 }
+                editor.commit()
             }
             
             withContext(Dispatchers.Main) {
@@ -910,8 +1188,10 @@ class GalleryViewModel(
     fun addTagToSelected(tag: String) {
         viewModelScope.launch {
             val currentSelected = _uiState.value.selectedItems
-            currentSelected.forEach { uri ->
-                preferencesManager.addTag(uri, tag)
+            withContext(Dispatchers.IO) {
+                val editor = preferencesManager.editTags()
+                currentSelected.forEach { uri -> editor.addTag(uri, tag) }
+                editor.commit()
             }
             loadMediaItems(preserveSelection = true)
         }
@@ -920,8 +1200,10 @@ class GalleryViewModel(
     fun removeTagFromSelected(tag: String) {
         viewModelScope.launch {
             val currentSelected = _uiState.value.selectedItems
-            currentSelected.forEach { uri ->
-                preferencesManager.removeTag(uri, tag)
+            withContext(Dispatchers.IO) {
+                val editor = preferencesManager.editTags()
+                currentSelected.forEach { uri -> editor.removeTag(uri, tag) }
+                editor.commit()
             }
             loadMediaItems(preserveSelection = true)
         }
@@ -14,16 +14,20 @@ import androidx.compose.ui.platform.LocalContext
 
 import androidx.compose.ui.unit.dp
 import androidx.lifecycle.viewmodel.compose.viewModel
-import androidx.preference.PreferenceManager
 import com.ojitos369.lumaloop.preferences.SharedPreferencesManager
 import com.ojitos369.lumaloop.ui.components.DisplayModeBottomSheet
 import com.ojitos369.lumaloop.ui.components.IntervalBottomSheet
 import com.ojitos369.lumaloop.ui.components.PlaybackOrderBottomSheet
 import com.ojitos369.lumaloop.ui.components.ThumbnailRatioBottomSheet
+import com.ojitos369.lumaloop.ui.components.TransitionEffectBottomSheet
+import com.ojitos369.lumaloop.ui.components.transitionEffectLabel
 import com.ojitos369.lumaloop.ui.components.TagFilterModeBottomSheet
+import com.ojitos369.lumaloop.ui.components.TelemetryBottomSheet
 import com.ojitos369.lumaloop.ui.components.HiddenTagsBottomSheet
 import com.ojitos369.lumaloop.ui.theme.neumorphic
 import com.ojitos369.lumaloop.ui.utils.WatchRepo
+import com.ojitos369.lumaloop.utilities.PlaybackPolicy
+import com.ojitos369.lumaloop.utilities.PlaybackPolicyMonitor
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
@@ -60,12 +64,10 @@ fun SettingsScreen(
                 viewModel(
                         factory =
                                 SettingsViewModelFactory(
-                                        SharedPreferencesManager(
-                                                // Use default SharedPreferences to match
-                                                // WallpaperPreferencesFragment
-                                                PreferenceManager.getDefaultSharedPreferences(
-                                                        LocalContext.current
-                                                )
+                                        // Use default SharedPreferences to match
+                                        // WallpaperPreferencesFragment
+                                        SharedPreferencesManager.fromContext(
+                                                LocalContext.current
                                         )
                                 )
                 )
@@ -80,6 +82,8 @@ fun SettingsScreen(
     var showIntervalSheet by remember { mutableStateOf(false) }
     var showPlaybackOrderSheet by remember { mutableStateOf(false) }
     var showDisplayModeSheet by remember { mutableStateOf(false) }
+    var showTransitionEffectSheet by remember { mutableStateOf(false) }
+    var showTelemetrySheet by remember { mutableStateOf(false) }
     var showThumbnailRatioSheet by remember { mutableStateOf(false) }
     var showTagFilterModeSheet by remember { mutableStateOf(false) }
     var showHiddenTagsSheet by remember { mutableStateOf(false) }
@@ -96,6 +100,16 @@ fun SettingsScreen(
     var watchAmbientMedia by remember { mutableStateOf(WatchRepo.ambientMedia(context)) }
     var showWatchIntervalSheet by remember { mutableStateOf(false) }
 
+    // Same evaluation the wallpaper runs, kept live while this screen is shown
+    var playbackPolicy by remember { mutableStateOf(PlaybackPolicy.NORMAL) }
+    DisposableEffect(uiState.batteryAwarePlayback) {
+        val monitor = PlaybackPolicyMonitor(context) { playbackPolicy = it }
+        monitor.setEnabled(uiState.batteryAwarePlayback)
+        monitor.start()
+        playbackPolicy = monitor.policy
+        onDispose { monitor.stop() }
+    }
+
     Column(
             modifier =
                     Modifier.fillMaxSize()
@@ -129,7 +143,7 @@ fun SettingsScreen(
             // Transition Duration Setting
             ListItem(
                     colors = transparentListItemColors(),
-                    headlineContent = { Text("Cross-fade Transition Speed") },
+                    headlineContent = { Text("Transition Speed") },
                     supportingContent = { Text("${uiState.transitionDuration} ms") },
                     leadingContent = {
                         Icon(
@@ -147,6 +161,22 @@ fun SettingsScreen(
                     modifier = Modifier.padding(horizontal = 24.dp)
             )
 
+            // Transition Effect Setting
+            ListItem(
+                    colors = transparentListItemColors(),
+                    headlineContent = { Text("Transition Effect") },
+                    supportingContent = { Text(transitionEffectLabel(uiState.transitionEffect)) },
+                    leadingContent = {
+                        Icon(
+                                Icons.Default.Animation,
+                                contentDescription = null,
+                                tint = MaterialTheme.colorScheme.primary
+                        )
+                    },
+                    trailingContent = { Icon(Icons.Default.ChevronRight, contentDescription = null) },
+                    modifier = Modifier.clickable { showTransitionEffectSheet = true }
+            )
+
             // Mute Setting
             ListItem(
                     colors = transparentListItemColors(),
@@ -219,6 +249,31 @@ fun SettingsScreen(
                         )
                     }
             )
+
+            // Battery-aware Playback Setting
+            ListItem(
+                    colors = transparentListItemColors(),
+                    headlineContent = { Text("Battery-aware Playback") },
+                    supportingContent = {
+                        Text(
+                                if (uiState.batteryAwarePlayback) playbackPolicy.describe()
+                                else "Off: always full quality"
+                        )
+                    },
+                    leadingContent = {
+                        Icon(
+                                Icons.Default.BatterySaver,
+                                contentDescription = null,
+                                tint = MaterialTheme.colorScheme.primary
+                        )
+                    },
+                    trailingContent = {
+                        Switch(
+                                checked = uiState.batteryAwarePlayback,
+                                onCheckedChange = { viewModel.setBatteryAwarePlayback(it) }
+                        )
+                    }
+            )
         }
 
         SettingsSection(title = "Gallery") {
@@ -414,6 +469,23 @@ fun SettingsScreen(
             }
         }
 
+        SettingsSection(title = "Diagnostics") {
+            ListItem(
+                    colors = transparentListItemColors(),
+                    headlineContent = { Text("Wallpaper Diagnostics") },
+                    supportingContent = { Text("Decode, upload, frame and video start times") },
+                    leadingContent = {
+                        Icon(
+                                Icons.Default.QueryStats,
+                                contentDescription = null,
+                                tint = MaterialTheme.colorScheme.primary
+                        )
+                    },
+                    trailingContent = { Icon(Icons.Default.ChevronRight, contentDescription = null) },
+                    modifier = Modifier.clickable { showTelemetrySheet = true }
+            )
+        }
+
         Spacer(modifier = Modifier.height(32.dp))
 
         // App Info
@@ -488,6 +560,18 @@ fun SettingsScreen(
         )
     }
 
+    if (showTransitionEffectSheet) {
+        TransitionEffectBottomSheet(
+                currentEffect = uiState.transitionEffect,
+                onDismiss = { showTransitionEffectSheet = false },
+                onSave = { viewModel.setTransitionEffect(it) }
+        )
+    }
+
+    if (showTelemetrySheet) {
+        TelemetryBottomSheet(onDismiss = { showTelemetrySheet = false })
+    }
+
     if (showThumbnailRatioSheet) {
         ThumbnailRatioBottomSheet(
                 selectedRatio = uiState.thumbnailRatio,
@@ -9,10 +9,12 @@ import kotlinx.coroutines.flow.asStateFlow
 data class SettingsUiState(
         val interval: Int = 5,
         val transitionDuration: Int = 1000,
+        val transitionEffect: SharedPreferencesManager.TransitionEffect = SharedPreferencesManager.TransitionEffect.CROSS_FADE,
         val muteVideos: Boolean = false,
         val playbackOrder: String = "Sequential",
         val displayMode: String = "Fit",
         val swipeToChange: Boolean = false,
+        val batteryAwarePlayback: Boolean = true,
         val galleryColumns: Int = 3,
         val thumbnailRatio: String = "3:4",
         val tagFilterMode: SharedPreferencesManager.TagFilterMode = SharedPreferencesManager.TagFilterMode.HAS_ANY,
@@ -71,10 +73,12 @@ class SettingsViewModel(private val preferencesManager: SharedPreferencesManager
                 _uiState.value.copy(
                         interval = preferencesManager.secondsBetweenImages,
                         transitionDuration = preferencesManager.transitionDuration,
+                        transitionEffect = preferencesManager.transitionEffect,
                         muteVideos = preferencesManager.muteVideos,
                         playbackOrder = playbackOrderDisplay,
                         displayMode = displayModeDisplay,
                         swipeToChange = preferencesManager.swipeToChange,
+                        batteryAwarePlayback = preferencesManager.batteryAwarePlayback,
                         galleryColumns = prefs.getInt("gallery_columns", 3),
                         thumbnailRatio = prefs.getString("thumbnail_ratio", "3:4") ?: "3:4",
                         tagFilterMode = preferencesManager.getTagFilterMode(),
@@ -95,6 +99,11 @@ class SettingsViewModel(private val preferencesManager: SharedPreferencesManager
         preferencesManager.transitionDuration = duration
     }
 
+    fun setTransitionEffect(effect: SharedPreferencesManager.TransitionEffect) {
+        _uiState.value = _uiState.value.copy(transitionEffect = effect)
+        preferencesManager.transitionEffect = effect
+    }
+
     fun setMuteVideos(muted: Boolean) {
         _uiState.value = _uiState.value.copy(muteVideos = muted)
         preferencesManager.preferences.edit().putBoolean("mute_videos", muted).apply()
@@ -128,6 +137,11 @@ class SettingsViewModel(private val preferencesManager: SharedPreferencesManager
         preferencesManager.preferences.edit().putBoolean("swipe", enabled).apply()
     }
 
+    fun setBatteryAwarePlayback(enabled: Boolean) {
+        _uiState.value = _uiState.value.copy(batteryAwarePlayback = enabled)
+        preferencesManager.batteryAwarePlayback = enabled
+    }
+
     fun setGalleryColumns(columns: Int) {
         _uiState.value = _uiState.value.copy(galleryColumns = columns)
         preferencesManager.preferences.edit().putInt("gallery_columns", columns).apply()
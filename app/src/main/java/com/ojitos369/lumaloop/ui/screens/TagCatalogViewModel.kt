@@ -6,8 +6,11 @@ import android.util.Log
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.viewModelScope
+import com.ojitos369.lumaloop.preferences.MediaDatabase
 import com.ojitos369.lumaloop.preferences.SharedPreferencesManager
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
@@ -43,23 +46,42 @@ class TagCatalogViewModel(
     private val _uiState = MutableStateFlow(TagCatalogUiState())
     val uiState: StateFlow<TagCatalogUiState> = _uiState.asStateFlow()
 
+    private var reloadJob: Job? = null
+
+    // Keeps the counts live while tags are changed elsewhere (gallery, auto-tagging)
+    private val mediaChangeListener = MediaDatabase.OnMediaChangeListener {
+        viewModelScope.launch(Dispatchers.Main) { scheduleReload() }
+    }
+
     init {
+        preferencesManager.addOnMediaChangeListener(mediaChangeListener)
         loadTags()
     }
 
+    override fun onCleared() {
+        preferencesManager.removeOnMediaChangeListener(mediaChangeListener)
+        super.onCleared()
+    }
+
+    private fun scheduleReload() {
+        // Bursts of changes (e.g. auto-tagging) collapse into one reload
+        reloadJob?.cancel()
+        reloadJob = viewModelScope.launch {
+            delay(250)
+            loadTags()
+        }
+    }
+
     fun loadTags() {
         viewModelScope.launch {
             _uiState.value = _uiState.value.copy(isLoading = true)
             
-            val masterTags = preferencesManager.masterTagList
-            val allUris = preferencesManager.imageUrisBase
-            
-            val tagCounts = masterTags.associateWith { tag ->
-                allUris.count { uri -> preferencesManager.getTags(uri).contains(tag) }
-            }
-            
-            val tagInfos = tagCounts.map { (name, count) ->
-                TagInfo(name, count, isSystemTag = name == "Images" || name == "Videos")
+            val tagInfos = withContext(Dispatchers.IO) {
+                val masterTags = preferencesManager.masterTagList
+                val tagCounts = preferencesManager.tagCounts
+                masterTags.map { name ->
+                    TagInfo(name, tagCounts[name] ?: 0, isSystemTag = name == "Images" || name == "Videos")
+                }
             }
             
             _uiState.value = _uiState.value.copy(
@@ -116,6 +138,7 @@ class TagCatalogViewModel(
             _uiState.value = _uiState.value.copy(totalCount = allUris.size)
             
             withContext(Dispatchers.IO) {
+                val editor = preferencesManager.editTags()
                 allUris.forEachIndexed { index, uri ->
                     val displayName = MediaStoreHelper.getDisplayName(context, uri) ?: uri.lastPathSegment ?: "Unknown"
                     val normalizedName = displayName.lowercase().replace(Regex("[^a-z0-9]"), "")
@@ -128,7 +151,7 @@ class TagCatalogViewModel(
                         if (normalizedTag.isNotEmpty() && normalizedName.contains(normalizedTag)) {
                             if (!currentTags.contains(tag)) {
                                 Log.d("TagCatalogVM", "Adding tag '$tag' to '$displayName' (normalized: $normalizedName contains $normalizedTag)")
-                                preferencesManager.addTag(uri, tag)
+                                editor.addTag(uri, tag)
                                 changed = true
                             } else {
                                 Log.d("TagCatalogVM", "Tag '$tag' already exists on '$displayName'")
@@ -143,6 +166,7 @@ class TagCatalogViewModel(
                         )
                     }
                 }
+                editor.commit()
             }
             
             _uiState.value = _uiState.value.copy(isAutoTagging = false)
@@ -0,0 +1,100 @@
+package com.ojitos369.lumaloop.ui.utils
+
+import android.content.Context
+import android.net.Uri
+import android.util.Log
+import java.io.FileInputStream
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+
+/**
+ * Cheap content identity for media files: the size plus a hash of the first
+ * and last [BLOCK_SIZE] bytes. Reads at most two blocks of a seekable file,
+ * so it is fast enough to run for every imported item, and it still tells
+ * apart files that merely share a name or id.
+ */
+object ContentFingerprint {
+    private const val TAG = "ContentFingerprint"
+    private const val BLOCK_SIZE = 16 * 1024
+
+    /**
+     * Stored for items that could not be read, so they are not opened again on
+     * every backfill. Never equal to a real fingerprint.
+     */
+    const val UNREADABLE = "unreadable"
+
+    /** The fingerprint of [uri], or null if it cannot be read. */
+    fun of(context: Context, uri: Uri): String? {
+        return try {
+            context.contentResolver.openFileDescriptor(uri, "r")?.use { fd ->
+                if (fd.statSize < 0) {
+                    // Pipe: no random access, hash while streaming through
+                    return@use context.contentResolver.openInputStream(uri)?.use { ofStream(it) }
+                }
+                FileInputStream(fd.fileDescriptor).channel.use { channel ->
+                    val size = channel.size()
+                    val head = ByteBuffer.allocate(minOf(size, BLOCK_SIZE.toLong()).toInt())
+                    readFully(channel, head, 0)
+                    val tailLength = minOf(size - head.capacity(), BLOCK_SIZE.toLong()).toInt()
+                    val tail = ByteBuffer.allocate(tailLength)
+                    readFully(channel, tail, size - tailLength)
+                    digest(size, head.array(), head.capacity(), tail.array(), tailLength)
+                }
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Could not fingerprint $uri", e)
+            null
+        }
+    }
+
+    private fun readFully(channel: java.nio.channels.FileChannel, buffer: ByteBuffer, position: Long) {
+        var offset = position
+        while (buffer.hasRemaining()) {
+            val read = channel.read(buffer, offset)
+            if (read < 0) break
+            offset += read
+        }
+    }
+
+    private fun ofStream(input: InputStream): String {
+        val head = ByteArray(BLOCK_SIZE)
+        var headLength = 0
+        // Ring buffer holding the last BLOCK_SIZE bytes after the head
+        val ring = ByteArray(BLOCK_SIZE)
+        var ringEnd = 0
+        var ringLength = 0
+        var size = 0L
+        val buffer = ByteArray(64 * 1024)
+        while (true) {
+            val read = input.read(buffer)
+            if (read < 0) break
+            var start = 0
+            if (headLength < BLOCK_SIZE) {
+                val count = minOf(read, BLOCK_SIZE - headLength)
+                System.arraycopy(buffer, 0, head, headLength, count)
+                headLength += count
+                start = count
+            }
+            for (i in start until read) {
+                ring[ringEnd] = buffer[i]
+                ringEnd = (ringEnd + 1) % BLOCK_SIZE
+                if (ringLength < BLOCK_SIZE) ringLength++
+            }
+            size += read
+        }
+        val tail = ByteArray(ringLength)
+        val ringStart = (ringEnd - ringLength + BLOCK_SIZE) % BLOCK_SIZE
+        for (i in 0 until ringLength) {
+            tail[i] = ring[(ringStart + i) % BLOCK_SIZE]
+        }
+        return digest(size, head, headLength, tail, ringLength)
+    }
+
+    private fun digest(size: Long, head: ByteArray, headLength: Int, tail: ByteArray, tailLength: Int): String {
+        val digest = MessageDigest.getInstance("SHA-1")
+        digest.update(head, 0, headLength)
+        digest.update(tail, 0, tailLength)
+        return size.toString(16) + ":" + digest.digest().joinToString("") { "%02x".format(it) }
+    }
+}
@@ -0,0 +1,40 @@
+package com.ojitos369.lumaloop.ui.utils
+
+import android.content.Context
+import coil.ImageLoader
+import coil.disk.DiskCache
+import coil.memory.MemoryCache
+
+/**
+ * The app-wide Coil [ImageLoader]. Images and video frames share its memory
+ * cache; items include DATE_MODIFIED in their request parameters, so an
+ * edited file gets a new cache key instead of needing manual eviction.
+ */
+object GalleryImageLoader {
+    private const val MEMORY_CACHE_PERCENT = 0.20
+    private const val DISK_CACHE_DIR = "image_cache"
+    private const val DISK_CACHE_BYTES = 128L * 1024 * 1024
+
+    /** Request parameter holding the item's DATE_MODIFIED; part of the memory cache key. */
+    const val PARAM_LAST_MODIFIED = "last_modified"
+
+    fun create(context: Context): ImageLoader {
+        return ImageLoader.Builder(context)
+            .memoryCache {
+                MemoryCache.Builder(context)
+                    .maxSizePercent(MEMORY_CACHE_PERCENT)
+                    .build()
+            }
+            .diskCache {
+                DiskCache.Builder()
+                    .directory(context.cacheDir.resolve(DISK_CACHE_DIR))
+                    .maxSizeBytes(DISK_CACHE_BYTES)
+                    .build()
+            }
+            .components {
+                add(VideoFrameFetcher.Keyer())
+                add(VideoFrameFetcher.Factory())
+            }
+            .build()
+    }
+}
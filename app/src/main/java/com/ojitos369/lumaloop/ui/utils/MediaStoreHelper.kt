@@ -1,24 +1,101 @@
 package com.ojitos369.lumaloop.ui.utils
 
+import android.app.ActivityManager
 import android.content.ContentValues
 import android.content.Context
 import android.net.Uri
 import android.os.Build
+import android.os.Environment
 import android.provider.MediaStore
 import android.util.Log
+import androidx.annotation.RequiresApi
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
 
 object MediaStoreHelper {
     private const val ALBUM_NAME = "LumaLoop"
     const val WATCH_ALBUM_NAME = "LumaLoopWatch"
     private const val TAG = "MediaStoreHelper"
+    private const val MAX_IMPORT_PARALLELISM = 3
+    private const val COPY_BUFFER_SIZE = 256 * 1024
+
+    /**
+     * Position in the MediaStore change history. Generations only grow while
+     * the [version] stays the same; a new version means the database was
+     * rebuilt and everything has to be rescanned.
+     */
+    data class SyncToken(val version: String, val generation: Long)
+
+    /** A row of the album as read from MediaStore; [inAlbum] is false once it was moved elsewhere. */
+    data class AlbumEntry(val uri: Uri, val isVideo: Boolean, val name: String, val lastModified: Long,
+                          val inAlbum: Boolean = true)
+
+    /** The current [SyncToken] of the primary volume, or null before Android 11. */
+    fun getSyncToken(context: Context): SyncToken? {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return null
+        return try {
+            SyncToken(
+                MediaStore.getVersion(context, MediaStore.VOLUME_EXTERNAL_PRIMARY),
+                MediaStore.getGeneration(context, MediaStore.VOLUME_EXTERNAL_PRIMARY)
+            )
+        } catch (e: Exception) {
+            Log.e(TAG, "Error reading MediaStore generation", e)
+            null
+        }
+    }
+
+    /**
+     * Images and videos added or modified after [generation]. Only those rows
+     * are read, so this stays cheap for large albums. Rows outside [albumName]
+     * are included with [AlbumEntry.inAlbum] false, since a move out of the
+     * album changes the path but is not reported as a deletion.
+     */
+    @RequiresApi(Build.VERSION_CODES.R)
+    fun getAlbumEntriesModifiedSince(context: Context, albumName: String, generation: Long): List<AlbumEntry> {
+        val result = mutableListOf<AlbumEntry>()
+        val projection = arrayOf(
+            MediaStore.MediaColumns._ID,
+            MediaStore.MediaColumns.DISPLAY_NAME,
+            MediaStore.MediaColumns.DATE_MODIFIED,
+            MediaStore.MediaColumns.RELATIVE_PATH
+        )
+        val selection = "${MediaStore.MediaColumns.GENERATION_MODIFIED} > ?"
+        val selectionArgs = arrayOf(generation.toString())
+        val albumPath = "Pictures/$albumName/"
+        val collections = listOf(
+            MediaStore.Images.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY) to MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+            MediaStore.Video.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY) to MediaStore.Video.Media.EXTERNAL_CONTENT_URI
+        )
+        collections.forEach { (collection, baseUri) ->
+            context.contentResolver.query(collection, projection, selection, selectionArgs, null)?.use { cursor ->
+                val idColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns._ID)
+                val nameColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DISPLAY_NAME)
+                val dateColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATE_MODIFIED)
+                val pathColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.RELATIVE_PATH)
+                while (cursor.moveToNext()) {
+                    result.add(
+                        AlbumEntry(
+                            // Same form as getAlbumContent, so stored uris stay comparable
+                            uri = Uri.withAppendedPath(baseUri, cursor.getLong(idColumn).toString()),
+                            isVideo = baseUri == MediaStore.Video.Media.EXTERNAL_CONTENT_URI,
+                            name = cursor.getString(nameColumn) ?: "Unknown",
+                            lastModified = cursor.getLong(dateColumn),
+                            // Same match as the LIKE of getAlbumContent, which ignores ASCII case
+                            inAlbum = cursor.getString(pathColumn)?.contains(albumPath, ignoreCase = true) == true
+                        )
+                    )
+                }
+            }
+        }
+        return result
+    }
     
     suspend fun copyToPublicAlbum(context: Context, sourceUri: Uri, originalName: String? = null, albumName: String = ALBUM_NAME): Uri? = withContext(Dispatchers.IO) {
         try {
-            val inputStream = context.contentResolver.openInputStream(sourceUri) ?: return@withContext null
-            
             // Get MIME type
             val mimeType = context.contentResolver.getType(sourceUri) ?: "image/jpeg"
             val isVideo = mimeType.startsWith("video/")
@@ -71,8 +148,12 @@ object MediaStoreHelper {
                 ?: return@withContext null
             
             // Copy content
-            context.contentResolver.openOutputStream(newUri)?.use { outputStream ->
-                inputStream.copyTo(outputStream)
+            try {
+                copyContent(context, sourceUri, newUri)
+            } catch (e: Exception) {
+                // Don't leave a pending, half written entry behind
+                context.contentResolver.delete(newUri, null, null)
+                throw e
             }
             
             // Mark as not pending
@@ -82,7 +163,6 @@ object MediaStoreHelper {
                 context.contentResolver.update(newUri, contentValues, null, null)
             }
             
-            inputStream.close()
             Log.d(TAG, "Successfully copied to album: $newUri")
             newUri
         } catch (e: Exception) {
@@ -91,6 +171,60 @@ object MediaStoreHelper {
         }
     }
     
+    /**
+     * Number of imports to run at once, for the primary volume the album is
+     * written to. Removable storage such as an adopted SD card copes best
+     * with one stream, and low-RAM devices mostly ship slow eMMC; other
+     * built-in flash keeps a few parallel copies busy.
+     */
+    fun importParallelism(context: Context): Int {
+        val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as? ActivityManager
+        return when {
+            Environment.isExternalStorageRemovable() -> 1
+            activityManager?.isLowRamDevice == true -> 2
+            else -> MAX_IMPORT_PARALLELISM
+        }
+    }
+
+    /**
+     * Copies [source] into [target]. When both sides are backed by regular
+     * files the kernel moves the bytes with [java.nio.channels.FileChannel.transferTo];
+     * pipes and other streams fall back to a buffered copy.
+     */
+    private fun copyContent(context: Context, source: Uri, target: Uri) {
+        val resolver = context.contentResolver
+        val transferred = try {
+            resolver.openFileDescriptor(source, "r")?.use { sourceFd ->
+                // statSize is -1 for pipes and sockets, which channels cannot position in
+                if (sourceFd.statSize < 0) return@use false
+                resolver.openFileDescriptor(target, "wt")?.use { targetFd ->
+                    FileInputStream(sourceFd.fileDescriptor).channel.use { input ->
+                        FileOutputStream(targetFd.fileDescriptor).channel.use { output ->
+                            val size = input.size()
+                            var position = 0L
+                            while (position < size) {
+                                val count = input.transferTo(position, size - position, output)
+                                if (count <= 0) break
+                                position += count
+                            }
+                            position == size
+                        }
+                    }
+                } ?: false
+            } ?: false
+        } catch (e: Exception) {
+            Log.w(TAG, "Channel transfer not possible for $source, streaming instead", e)
+            false
+        }
+        if (transferred) return
+
+        val input = resolver.openInputStream(source) ?: throw IOException("Cannot open $source")
+        input.use {
+            val output = resolver.openOutputStream(target, "wt") ?: throw IOException("Cannot write $target")
+            output.use { input.copyTo(it, COPY_BUFFER_SIZE) }
+        }
+    }
+
     fun getAlbumContent(context: Context, albumName: String = ALBUM_NAME): List<Uri> {
         val albumUris = mutableListOf<Uri>()
         
@@ -0,0 +1,43 @@
+package com.ojitos369.lumaloop.ui.utils
+
+import android.graphics.drawable.BitmapDrawable
+import android.net.Uri
+import coil.ImageLoader
+import coil.decode.DataSource
+import coil.fetch.DrawableResult
+import coil.fetch.FetchResult
+import coil.fetch.Fetcher
+import coil.request.Options
+import coil.size.Dimension
+import java.io.IOException
+
+/** Coil model for the grid thumbnail of a video. */
+data class VideoFrame(val uri: Uri, val lastModified: Long)
+
+/**
+ * Loads [VideoFrame]s through [VideoThumbnailLoader], so video thumbnails go
+ * through the same request pipeline and memory cache as images. The frame is
+ * extracted at the width Coil resolved for the request.
+ */
+class VideoFrameFetcher(private val data: VideoFrame, private val options: Options) : Fetcher {
+
+    override suspend fun fetch(): FetchResult {
+        val width = (options.size.width as? Dimension.Pixels)?.px ?: 0
+        val bitmap = VideoThumbnailLoader.loadThumbnail(options.context, data.uri, data.lastModified, width)
+            ?: throw IOException("No frame could be extracted from ${data.uri}")
+        return DrawableResult(
+            drawable = BitmapDrawable(options.context.resources, bitmap),
+            isSampled = width > 0,
+            dataSource = DataSource.DISK
+        )
+    }
+
+    class Factory : Fetcher.Factory<VideoFrame> {
+        override fun create(data: VideoFrame, options: Options, imageLoader: ImageLoader): Fetcher =
+            VideoFrameFetcher(data, options)
+    }
+
+    class Keyer : coil.key.Keyer<VideoFrame> {
+        override fun key(data: VideoFrame, options: Options): String = "${data.uri}@${data.lastModified}"
+    }
+}
@@ -2,29 +2,131 @@ package com.ojitos369.lumaloop.ui.utils
 
 import android.content.Context
 import android.graphics.Bitmap
+import android.graphics.BitmapFactory
 import android.media.MediaMetadataRetriever
 import android.net.Uri
+import android.os.Build
 import android.util.Log
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.FileOutputStream
+import java.security.MessageDigest
 
+/**
+ * Grid thumbnails for videos, cached on disk as downscaled JPEGs. Entries are
+ * keyed by uri, DATE_MODIFIED and size, so an edited video gets a new
+ * thumbnail without explicit invalidation. The memory tier is Coil's memory
+ * cache; see [VideoFrameFetcher].
+ */
 object VideoThumbnailLoader {
-    
-    suspend fun loadThumbnail(context: Context, uri: Uri): Bitmap? = withContext(Dispatchers.IO) {
+    private const val TAG = "VideoThumbnailLoader"
+    private const val DISK_CACHE_DIR = "video_thumbnails"
+    private const val DISK_CACHE_BYTES = 64L * 1024 * 1024
+    private const val JPEG_QUALITY = 85
+    // Frame extraction is CPU and codec heavy; more than two in parallel only adds contention
+    private const val MAX_PARALLEL_EXTRACTIONS = 2
+    // Sizes are rounded up to this step so small layout changes reuse the same entry
+    private const val SIZE_STEP = 128
+
+    private val extractions = Semaphore(MAX_PARALLEL_EXTRACTIONS)
+    private val diskLock = Any()
+
+    /**
+     * Thumbnail of [uri] about [targetWidth] pixels wide, or null if no frame
+     * can be extracted. Cancelling the caller while it waits for a decoder
+     * slot drops the request without extracting anything.
+     */
+    suspend fun loadThumbnail(context: Context, uri: Uri, lastModified: Long = 0, targetWidth: Int = 0): Bitmap? {
+        val width = if (targetWidth > 0) (targetWidth + SIZE_STEP - 1) / SIZE_STEP * SIZE_STEP else 0
+        val key = "$uri@$lastModified@$width"
+
+        return withContext(Dispatchers.IO) {
+            val file = File(File(context.cacheDir, DISK_CACHE_DIR), hash(key) + ".jpg")
+            readFromDisk(file)?.let { return@withContext it }
+
+            val bitmap = extractions.withPermit { extractFrame(context, uri, width) } ?: return@withContext null
+            writeToDisk(file, bitmap)
+            bitmap
+        }
+    }
+
+    /**
+     * Decodes the frame at 1 second (or the first frame), scaled to [width]
+     * by the decoder where supported instead of at full resolution.
+     */
+    private fun extractFrame(context: Context, uri: Uri, width: Int): Bitmap? {
         val retriever = MediaMetadataRetriever()
-        try {
+        return try {
             retriever.setDataSource(context, uri)
-            // Get frame at 1 second or first frame
-            retriever.getFrameAtTime(1000000) // 1 second in microseconds
+            val frameTimeUs = 1000000L // 1 second in microseconds
+            if (width <= 0) {
+                return retriever.getFrameAtTime(frameTimeUs)
+            }
+            val videoWidth = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH)?.toIntOrNull() ?: 0
+            val videoHeight = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT)?.toIntOrNull() ?: 0
+            val rotation = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION)?.toIntOrNull() ?: 0
+            // The returned frame is already rotated, but the reported size is not
+            val (frameWidth, frameHeight) = if (rotation % 180 != 0) videoHeight to videoWidth else videoWidth to videoHeight
+            if (frameWidth <= 0 || frameHeight <= 0 || frameWidth <= width) {
+                return retriever.getFrameAtTime(frameTimeUs)
+            }
+            val height = (frameHeight.toLong() * width / frameWidth).toInt().coerceAtLeast(1)
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                retriever.getScaledFrameAtTime(frameTimeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, width, height)
+            } else {
+                retriever.getFrameAtTime(frameTimeUs)?.let { frame ->
+                    Bitmap.createScaledBitmap(frame, width, height, true).also { if (it !== frame) frame.recycle() }
+                }
+            }
         } catch (e: Exception) {
-            Log.e("VideoThumbnailLoader", "Error loading video thumbnail", e)
+            Log.e(TAG, "Error loading video thumbnail", e)
             null
         } finally {
             try {
                 retriever.release()
             } catch (e: Exception) {
-                Log.e("VideoThumbnailLoader", "Error releasing retriever", e)
+                Log.e(TAG, "Error releasing retriever", e)
             }
         }
     }
+
+    private fun readFromDisk(file: File): Bitmap? {
+        if (!file.exists()) return null
+        return BitmapFactory.decodeFile(file.path)?.also {
+            // Keeps recently used entries from being trimmed
+            file.setLastModified(System.currentTimeMillis())
+        }
+    }
+
+    private fun writeToDisk(file: File, bitmap: Bitmap) {
+        synchronized(diskLock) {
+            try {
+                file.parentFile?.mkdirs()
+                val tmp = File(file.path + ".tmp")
+                FileOutputStream(tmp).use { bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, it) }
+                tmp.renameTo(file)
+                trimDiskCache(file.parentFile)
+            } catch (e: Exception) {
+                Log.w(TAG, "Could not cache thumbnail", e)
+            }
+        }
+    }
+
+    /** Deletes the least recently used files until the directory fits [DISK_CACHE_BYTES]. */
+    private fun trimDiskCache(dir: File?) {
+        val files = dir?.listFiles() ?: return
+        var total = files.sumOf { it.length() }
+        if (total <= DISK_CACHE_BYTES) return
+        files.sortedBy { it.lastModified() }.forEach { file ->
+            if (total <= DISK_CACHE_BYTES * 3 / 4) return
+            total -= file.length()
+            file.delete()
+        }
+    }
+
+    private fun hash(key: String): String =
+        MessageDigest.getInstance("SHA-1").digest(key.toByteArray()).joinToString("") { "%02x".format(it) }
 }
@@ -25,18 +25,16 @@ import androidx.media3.common.MediaItem;
 import androidx.media3.common.PlaybackException;
 import androidx.media3.common.Player;
 import androidx.media3.common.Tracks;
+import androidx.media3.common.VideoSize;
 import androidx.media3.common.MimeTypes;
 import androidx.media3.exoplayer.ExoPlayer;
 import androidx.media3.exoplayer.image.ImageRenderer;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
-import android.view.Surface;
 import android.view.SurfaceHolder;
-import android.graphics.SurfaceTexture;
 
 import androidx.media3.common.MediaItem;
 import androidx.media3.common.Player;
@@ -44,15 +42,19 @@ import androidx.media3.common.Tracks;
 import androidx.media3.exoplayer.ExoPlayer;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
+import com.ojitos369.lumaloop.preferences.Playlist;
 import com.ojitos369.lumaloop.preferences.SharedPreferencesManager;
 
 public class CurrentMediaHandler {
     private static final String TAG = "CurrentMediaHandler";
+    private static final int PREFETCH_AHEAD = 2;
 
     private int currentIndex;
     private MediaInfo currentMedia;
@@ -71,12 +73,26 @@ public class CurrentMediaHandler {
     private ArrayList<NextMediaListener> nextMediaListeners;
 
     private boolean isVideoPlaying = false;
-    private ExoPlayer exoPlayer;
-    private GLWallpaperRenderer glRenderer;
-    private SurfaceTexture videoSurfaceTexture;
-    private Surface videoSurface;
-    private ExecutorService imageExecutor = Executors.newSingleThreadExecutor();
+    // Player i renders into video output i of the renderer, so the clips on
+    // both sides of a video-to-video fade are decoded at the same time
+    private final ExoPlayer[] players = new ExoPlayer[GLWallpaperRenderer.VIDEO_OUTPUTS];
+    // Player of the current video slide, or -1 for an image
+    private int activePlayer = -1;
+    // Player of the previous video while it fades out, or -1
+    private int fadingPlayer = -1;
+    private GLRenderThread glRenderer;
+    // The renderer whose video outputs are attached to the players
+    private GLRenderThread attachedRenderer;
+    private final ExecutorService imageExecutor = Executors.newSingleThreadExecutor();
     private Runnable imageTimerRunnable;
+    // Incremented per slide request so stale decodes are dropped; main thread only
+    private int mediaRequest;
+    // Slides in a row that could not be loaded; main thread only
+    private int failedSlides;
+    private final MediaPrefetcher prefetcher;
+    // Random mode picks its upcoming indices ahead of time so they can be prefetched
+    private final ArrayDeque<Integer> randomQueue = new ArrayDeque<>(PREFETCH_AHEAD);
+    private final Random random = new Random();
 
     public interface NextMediaListener {
         void nextMedia(MediaInfo media);
@@ -93,160 +109,223 @@ public class CurrentMediaHandler {
         this.runnable = true;
         this.isPaused = false;
         nextMediaListeners = new ArrayList<>(1);
+        this.prefetcher = new MediaPrefetcher(manager, context, decodeTarget());
     }
 
-    private void initializeExoPlayer() {
-        if (exoPlayer == null) {
-            // Configure LoadControl for optimized video playback with large files
-            // Lower buffer sizes for faster startup, reduces memory usage
-            androidx.media3.exoplayer.DefaultLoadControl loadControl = new androidx.media3.exoplayer.DefaultLoadControl.Builder()
-                    .setBufferDurationsMs(
-                            2500, // Min buffer: 2.5s for fast startup
-                            10000, // Max buffer: 10s to limit memory usage
-                            1500, // Buffer for playback: 1.5s
-                            2000 // Buffer for re-buffer: 2s
-                    )
-                    .setPrioritizeTimeOverSizeThresholds(true)
-                    .build();
-
-            // Build ExoPlayer with optimized settings
-            exoPlayer = new ExoPlayer.Builder(context)
-                    .setLoadControl(loadControl)
-                    .build();
-
-            // Set video scaling mode for better performance
-            exoPlayer.setVideoScalingMode(android.media.MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT);
-
-            Log.d(TAG, "ExoPlayer created with optimized buffer settings for large videos");
-
-            exoPlayer.addListener(new Player.Listener() {
-                @Override
-                public void onPlaybackStateChanged(int playbackState) {
-                    if (playbackState == Player.STATE_ENDED) {
-                        Log.d(TAG, "Media playback completed (video or image)");
+    private void initializePlayers() {
+        for (int i = 0; i < players.length; i++) {
+            if (players[i] == null) {
+                players[i] = createPlayer(i);
+            }
+        }
+    }
+
+    private ExoPlayer createPlayer(final int output) {
+        // Configure LoadControl for optimized video playback with large files
+        // Lower buffer sizes for faster startup, reduces memory usage
+        androidx.media3.exoplayer.DefaultLoadControl loadControl = new androidx.media3.exoplayer.DefaultLoadControl.Builder()
+                .setBufferDurationsMs(
+                        2500, // Min buffer: 2.5s for fast startup
+                        10000, // Max buffer: 10s to limit memory usage
+                        1500, // Buffer for playback: 1.5s
+                        2000 // Buffer for re-buffer: 2s
+                )
+                .setPrioritizeTimeOverSizeThresholds(true)
+                .build();
+
+        // Build ExoPlayer with optimized settings
+        ExoPlayer player = new ExoPlayer.Builder(context)
+                .setLoadControl(loadControl)
+                .build();
+
+        // Set video scaling mode for better performance
+        player.setVideoScalingMode(android.media.MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT);
+
+        Log.d(TAG, "ExoPlayer " + output + " created with optimized buffer settings for large videos");
+
+        player.addListener(new Player.Listener() {
+            // Reached READY for the current item, so buffering from now on is a stall
+            private boolean started;
+
+            @Override
+            public void onPlaybackStateChanged(int playbackState) {
+                if (playbackState == Player.STATE_BUFFERING && started) {
+                    WallpaperTelemetry.get().recordRebuffer();
+                }
+                started = playbackState == Player.STATE_READY
+                        || (started && playbackState == Player.STATE_BUFFERING);
+                if (playbackState == Player.STATE_ENDED) {
+                    Log.d(TAG, "Video playback completed on player " + output);
+                    // A clip fading out just freezes on its last frame
+                    if (output == activePlayer) {
                         forceNextMedia(context);
-                    } else if (playbackState == Player.STATE_BUFFERING) {
-                        Log.d(TAG, "Buffering video...");
-                    } else if (playbackState == Player.STATE_READY) {
-                        Log.d(TAG, "Video ready to play");
                     }
+                } else if (playbackState == Player.STATE_BUFFERING) {
+                    Log.d(TAG, "Buffering video...");
+                } else if (playbackState == Player.STATE_READY) {
+                    Log.d(TAG, "Video ready to play");
                 }
+            }
+
+            @Override
+            public void onMediaItemTransition(MediaItem mediaItem, int reason) {
+                // Loading the next clip buffers without being a stall
+                started = false;
+            }
 
-                @Override
-                public void onTracksChanged(Tracks tracks) {
-                    Log.d(TAG, "Tracks changed: " + tracks);
+            @Override
+            public void onVideoSizeChanged(VideoSize videoSize) {
+                if (glRenderer != null && videoSize.width > 0 && videoSize.height > 0) {
+                    glRenderer.setVideoSize(output, Math.round(videoSize.width * videoSize.pixelWidthHeightRatio),
+                            videoSize.height);
                 }
+            }
+
+            @Override
+            public void onTracksChanged(Tracks tracks) {
+                Log.d(TAG, "Tracks changed: " + tracks);
+            }
 
-                @Override
-                public void onPlayerError(androidx.media3.common.PlaybackException error) {
-                    Log.e(TAG, "ExoPlayer error: " + error.getMessage(), error);
-                    // Try to recover or skip to next media
+            @Override
+            public void onPlayerError(androidx.media3.common.PlaybackException error) {
+                Log.e(TAG, "ExoPlayer error: " + error.getMessage(), error);
+                // Skip to next media; a failed preload is simply prepared again when its slide comes
+                if (output == activePlayer) {
                     forceNextMedia(context);
                 }
-            });
-        }
+            }
+        });
+        return player;
     }
 
     private long transitionDurationMs = 1000;
-    private android.animation.ValueAnimator transitionAnimator;
+    // Launcher page offset from onOffsetsChanged, kept for renderers created later
+    private float scrollOffset = 0.5f;
+    // GPU texture size limit, 0 until a renderer has queried it
+    private int maxTextureSize;
+    // Whether the renderer draws hardware bitmaps; software decoding until one says so
+    private boolean hardwareImages;
+    // EGL could not be set up on the current surface; not retried until the surface changes
+    private boolean rendererFailed;
+    // Throttling for the device's battery and thermal state, see setPlaybackPolicy
+    private PlaybackPolicy playbackPolicy = PlaybackPolicy.NORMAL;
 
     private void updateTransitionDuration() {
-        transitionDurationMs = manager.getTransitionDuration();
+        // A zero duration makes the renderer cut on the first ready frame
+        transitionDurationMs = playbackPolicy.usesTransitions() ? manager.getTransitionDuration() : 0;
+    }
+
+    /**
+     * Applies {@code policy} from the next slide on: image intervals,
+     * transitions and poster frames instead of videos. The video frame rate
+     * cap takes effect at once.
+     */
+    public void setPlaybackPolicy(PlaybackPolicy policy) {
+        playbackPolicy = policy;
+        if (glRenderer != null) {
+            glRenderer.setMaxVideoFps(policy.getMaxVideoFps());
+        }
+        if (!policy.showsVideos()) {
+            dropPreloadedVideo();
+        }
+    }
+
+    /** Creates the GL render thread for the current surface if there is none. */
+    private void ensureRenderer() {
+        if (glRenderer == null && surfaceHolder != null && !rendererFailed) {
+            glRenderer = new GLRenderThread(surfaceHolder);
+            if (!glRenderer.isReady()) {
+                // Each attempt blocks the main thread; don't repeat it for every slide
+                rendererFailed = true;
+                glRenderer.release();
+                glRenderer = null;
+            } else {
+                maxTextureSize = glRenderer.getMaxTextureSize();
+                hardwareImages = glRenderer.usesHardwareImages();
+                glRenderer.setSurfaceSize(width, height);
+                glRenderer.setScrollPosition(scrollOffset);
+                glRenderer.setMaxVideoFps(playbackPolicy.getMaxVideoFps());
+            }
+        }
+    }
+
+    /** How large decoded images should be for the current surface, display mode and GPU. */
+    private DecodeTarget decodeTarget() {
+        return new DecodeTarget(width, height, manager.getTooWideImagesRule(context.getResources()), maxTextureSize,
+                hardwareImages);
     }
 
     /**
-     * Prepare media - Videos and Images use ExoPlayer.
+     * Prepare media - Videos use ExoPlayer, images are uploaded to the GL renderer.
+     * Either way the renderer cross-fades to the new slide from whatever was
+     * visible, image or video, over the configured transition duration.
+     * {@code image} is the decoded bitmap of an image slide, shared with {@link MediaInfo#getImage()}.
      */
-    private void prepareMedia(Uri uri, boolean isVideo) {
+    private void prepareMedia(Uri uri, boolean isVideo, Bitmap image) {
         Log.d(TAG, "prepareMedia: " + uri + " (isVideo=" + isVideo + ")");
 
-        initializeExoPlayer();
+        initializePlayers();
 
-        // Initialize GL renderer if needed
-        if (glRenderer == null && surfaceHolder != null) {
-            glRenderer = new GLWallpaperRenderer(context);
-            glRenderer.setSurface(surfaceHolder);
+        ensureRenderer();
+        if (glRenderer != null) {
+            glRenderer.setDisplayMode(manager.getTooWideImagesRule(context.getResources()));
+            glRenderer.setTransitionEffect(manager.getTransitionEffect());
+            if (attachedRenderer != glRenderer) {
+                attachedRenderer = glRenderer;
+                for (int i = 0; i < players.length; i++) {
+                    players[i].setVideoSurface(glRenderer.getVideoSurface(i));
+                }
+            }
         }
+        updateTransitionDuration();
+        // A fade still running is superseded; the renderer jumps to its end as well
+        releaseFadingPlayer();
+        int previous = activePlayer;
 
         try {
+            final int request = mediaRequest;
             if (isVideo) {
-                // For video: Create fresh SurfaceTexture every time to avoid stale frames
-                isVideoPlaying = true;
-                if (transitionAnimator != null) {
-                    transitionAnimator.cancel();
+                int output = playerFor(uri);
+                ExoPlayer player = players[output];
+                if (!isPreparedWith(player, uri)) {
+                    loadVideo(output, uri);
                 }
-
-                if (videoSurfaceTexture != null) {
-                    videoSurfaceTexture.release();
-                    videoSurfaceTexture = null;
-                }
-                if (videoSurface != null) {
-                    videoSurface.release();
-                    videoSurface = null;
-                }
-
-                // Create new SurfaceTexture for this video
-                videoSurfaceTexture = new SurfaceTexture(glRenderer.getVideoTextureId());
-                videoSurfaceTexture.setOnFrameAvailableListener(surfaceTexture -> {
-                    try {
-                        surfaceTexture.updateTexImage();
-                        if (glRenderer != null) {
-                            glRenderer.drawVideo();
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error rendering video frame", e);
-                    }
-                });
-                videoSurface = new Surface(videoSurfaceTexture);
-
-                exoPlayer.setVideoSurface(videoSurface);
-
-                MediaItem mediaItem = MediaItem.fromUri(uri);
                 if (manager.getMuteVideos()) {
-                    exoPlayer.setVolume(0f);
+                    player.setVolume(0f);
                 } else {
-                    exoPlayer.setVolume(1f);
+                    player.setVolume(1f);
                 }
-                exoPlayer.setMediaItem(mediaItem);
-                exoPlayer.prepare();
                 if (!isPaused) {
-                    exoPlayer.play();
+                    player.play();
                 }
-                Log.d(TAG, "Video playback started");
+                activePlayer = output;
+                isVideoPlaying = true;
+                fadeOutPlayer(previous);
+
+                if (glRenderer != null) {
+                    glRenderer.fadeToVideo(output, transitionDurationMs, () -> {
+                        if (request == mediaRequest && runnable) {
+                            releaseFadingPlayer();
+                            preloadNextVideo();
+                        }
+                    });
+                }
+                Log.d(TAG, "Video playback started on player " + output);
             } else {
-                // For images: 
-                boolean wasVideoPlaying = isVideoPlaying;
+                activePlayer = -1;
                 isVideoPlaying = false;
-                exoPlayer.stop();
-                exoPlayer.clearMediaItems();
-
-                imageExecutor.execute(() -> {
-                    try {
-                        InputStream inputStream = context.getContentResolver().openInputStream(uri);
-                        Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                        if (inputStream != null)
-                            inputStream.close();
-
-                        if (bitmap != null) {
-                            mainHandler.post(() -> {
-                                if (!isVideoPlaying && glRenderer != null) {
-                                    if (wasVideoPlaying) {
-                                        // Transition from video to image: just upload and draw
-                                        glRenderer.uploadImage(bitmap);
-                                        glRenderer.drawImage();
-                                        scheduleNextMedia();
-                                    } else {
-                                        // Transition from image to image: Cross-fade
-                                        startImageTransition(bitmap);
-                                    }
-                                }
-                            });
+                fadeOutPlayer(previous);
+
+                if (glRenderer != null) {
+                    // Frames are paced by vsync on the render thread; only the end comes back here
+                    glRenderer.fadeToImage(image, transitionDurationMs, () -> {
+                        if (request == mediaRequest && runnable && !isVideoPlaying) {
+                            releaseFadingPlayer();
+                            preloadNextVideo();
+                            scheduleNextMedia();
                         }
-                    } catch (IOException e) {
-                        Log.e(TAG, "Error loading image", e);
-                        forceNextMedia(context);
-                    }
-                });
+                    });
+                }
             }
         } catch (Exception e) {
             Log.e(TAG, "Error preparing media: " + e.getMessage(), e);
@@ -254,36 +333,111 @@ public class CurrentMediaHandler {
         }
     }
 
-    private void startImageTransition(Bitmap nextBitmap) {
-        if (glRenderer == null) return;
+    /** A player for {@code uri}: the one it is preloaded on, or any player that is not the active one. */
+    private int playerFor(Uri uri) {
+        int free = -1;
+        for (int i = 0; i < players.length; i++) {
+            if (i == activePlayer) continue;
+            if (isPreparedWith(players[i], uri)) return i;
+            free = i;
+        }
+        return free;
+    }
 
-        updateTransitionDuration();
+    /** Whether {@code player} has {@code uri} loaded and can start playing it at once. */
+    private boolean isPreparedWith(ExoPlayer player, Uri uri) {
+        MediaItem item = player.getCurrentMediaItem();
+        int state = player.getPlaybackState();
+        return item != null && item.localConfiguration != null && uri.equals(item.localConfiguration.uri)
+                && state != Player.STATE_IDLE && state != Player.STATE_ENDED;
+    }
 
-        if (transitionAnimator != null) {
-            transitionAnimator.cancel();
+    private void loadVideo(int output, Uri uri) {
+        if (glRenderer != null) {
+            glRenderer.resetVideoOutput(output);
         }
+        ExoPlayer player = players[output];
+        player.setPlayWhenReady(false);
+        player.setMediaItem(MediaItem.fromUri(uri));
+        player.prepare();
+    }
 
-        glRenderer.uploadNextImage(nextBitmap);
+    /** Mutes the previous video; it keeps playing underneath until the fade is over. */
+    private void fadeOutPlayer(int output) {
+        if (output >= 0) {
+            players[output].setVolume(0f);
+            fadingPlayer = output;
+        }
+    }
 
-        transitionAnimator = android.animation.ValueAnimator.ofFloat(0f, 1f);
-        transitionAnimator.setDuration(transitionDurationMs);
-        transitionAnimator.addUpdateListener(animation -> {
-            float progress = (float) animation.getAnimatedValue();
-            if (glRenderer != null && !isVideoPlaying) {
-                glRenderer.drawImageTransition(progress);
+    private void releaseFadingPlayer() {
+        if (fadingPlayer >= 0) {
+            if (players[fadingPlayer] != null) {
+                players[fadingPlayer].stop();
+                players[fadingPlayer].clearMediaItems();
             }
-        });
-        transitionAnimator.addListener(new android.animation.AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationEnd(android.animation.Animator animation) {
-                if (glRenderer != null && !isVideoPlaying) {
-                    glRenderer.swapTextures();
-                    glRenderer.drawImage(); // Draw final state
-                    scheduleNextMedia();
+            fadingPlayer = -1;
+        }
+    }
+
+    /** The player that is neither showing the current slide nor fading out, or -1. */
+    private int idlePlayer() {
+        for (int i = 0; i < players.length; i++) {
+            if (i != activePlayer && i != fadingPlayer && players[i] != null) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * If the next slide is a video, prepares it paused on the idle player.
+     * Its decoder is then running with the first frame latched by the time
+     * the slide comes, so the fade to it starts without waiting.
+     */
+    private void preloadNextVideo() {
+        if (!runnable) return;
+        final Uri next = peekNextUri();
+        if (next == null || !playbackPolicy.showsVideos()) return;
+        final int request = mediaRequest;
+        imageExecutor.execute(() -> {
+            boolean isVideo = MediaInfo.determineType(context, next) == MediaInfo.MediaType.VIDEO;
+            mainHandler.post(() -> {
+                if (request != mediaRequest || !runnable) return;
+                int output = idlePlayer();
+                if (output < 0 || isPreparedWith(players[output], next)) return;
+                dropPreloadedVideo();
+                if (isVideo) {
+                    loadVideo(output, next);
+                    Log.d(TAG, "Preloading next video on player " + output + ": " + next);
                 }
-            }
+            });
         });
-        transitionAnimator.start();
+    }
+
+    /** Stops whatever is preloaded on the idle player. */
+    private void dropPreloadedVideo() {
+        int output = idlePlayer();
+        if (output >= 0 && players[output].getMediaItemCount() > 0) {
+            players[output].stop();
+            players[output].clearMediaItems();
+        }
+    }
+
+    /** The uri {@link #getNextUri} will return for the next slide, without advancing. */
+    private Uri peekNextUri() {
+        synchronized (lock) {
+            Playlist playlist = playlist();
+            int countUris = playlist.size();
+            if (countUris <= 1) return null;
+            int nextIndex;
+            if (manager.getCurrentOrdering(context.getResources()) == SharedPreferencesManager.Ordering.RANDOM) {
+                Integer queued = randomQueue.peek();
+                if (queued == null) return null;
+                nextIndex = queued;
+            } else {
+                nextIndex = (manager.getCurrentIndex(playlist) + 1) % countUris;
+            }
+            return playlist.get(nextIndex);
+        }
     }
 
     private void scheduleNextMedia() {
@@ -322,24 +476,33 @@ public class CurrentMediaHandler {
         } catch (Exception e) {
             Log.e(TAG, "Error getting image duration, using default", e);
         }
-        return seconds * 1000L;
+        return Math.round(seconds * 1000L * playbackPolicy.getIntervalMultiplier());
     }
 
     public void updateSurface(SurfaceHolder holder) {
         this.surfaceHolder = holder;
-        // GLRenderer initialization is deferred to prepareMedia or can be done here if
-        // context is ready
-        // But we need to ensure GL context is created on the right thread if we were
-        // using a GLThread.
-        // Here we are running on main thread/service thread, so it should be fine for
-        // simple usage.
-        // However, if we want to re-init renderer:
+        rendererFailed = false;
+        // The render thread is recreated for the new surface by prepareMedia
         if (glRenderer != null) {
+            for (ExoPlayer player : players) {
+                if (player != null) {
+                    player.clearVideoSurface();
+                }
+            }
+            attachedRenderer = null;
             glRenderer.release();
             glRenderer = null;
         }
     }
 
+    /** Pans wide media with the launcher pages; {@code xOffset} is 0 on the first page and 1 on the last. */
+    public void setScrollOffset(float xOffset) {
+        scrollOffset = xOffset;
+        if (glRenderer != null) {
+            glRenderer.setScrollPosition(xOffset);
+        }
+    }
+
     public void addNextMediaListener(NextMediaListener l) {
         this.nextMediaListeners.add(l);
     }
@@ -365,6 +528,10 @@ public class CurrentMediaHandler {
     public void setDimensions(int width, int height, Context context) {
         this.width = width;
         this.height = height;
+        prefetcher.setTarget(decodeTarget());
+        if (glRenderer != null) {
+            glRenderer.setSurfaceSize(width, height);
+        }
         updateAfter(context, 0);
     }
 
@@ -379,8 +546,10 @@ public class CurrentMediaHandler {
         if (imageTimerRunnable != null) {
             mainHandler.removeCallbacks(imageTimerRunnable);
         }
-        if (exoPlayer != null && exoPlayer.isPlaying()) {
-            exoPlayer.pause();
+        for (ExoPlayer player : players) {
+            if (player != null && player.isPlaying()) {
+                player.pause();
+            }
         }
     }
 
@@ -394,14 +563,14 @@ public class CurrentMediaHandler {
      * mute preference is only read when a new media item is loaded).
      */
     public void applyMute(boolean muted) {
-        if (exoPlayer != null) {
-            exoPlayer.setVolume(muted ? 0f : 1f);
+        if (activePlayer >= 0 && players[activePlayer] != null) {
+            players[activePlayer].setVolume(muted ? 0f : 1f);
         }
     }
 
     private void startPlayback() {
-        if (exoPlayer != null && !exoPlayer.isPlaying()) {
-            exoPlayer.play();
+        if (activePlayer >= 0 && players[activePlayer] != null && !players[activePlayer].isPlaying()) {
+            players[activePlayer].play();
         }
     }
 
@@ -420,35 +589,46 @@ public class CurrentMediaHandler {
         if (imageTimerRunnable != null) {
             mainHandler.removeCallbacks(imageTimerRunnable);
         }
-        if (exoPlayer != null) {
+        for (int i = 0; i < players.length; i++) {
+            if (players[i] == null) continue;
             try {
-                Log.d(TAG, "Stopping and releasing ExoPlayer");
-                exoPlayer.stop();
-                exoPlayer.clearVideoSurface();
-                exoPlayer.release();
-                exoPlayer = null;
+                Log.d(TAG, "Stopping and releasing ExoPlayer " + i);
+                players[i].stop();
+                players[i].clearVideoSurface();
+                players[i].release();
                 Log.d(TAG, "ExoPlayer released");
             } catch (Exception e) {
                 Log.e(TAG, "Error stopping ExoPlayer", e);
-                exoPlayer = null; // Force null even on error
             }
+            players[i] = null; // Force null even on error
         }
+        activePlayer = -1;
+        fadingPlayer = -1;
         if (glRenderer != null) {
             glRenderer.release();
             glRenderer = null;
         }
-        if (videoSurface != null) {
-            videoSurface.release();
-            videoSurface = null;
-        }
-        if (videoSurfaceTexture != null) {
-            videoSurfaceTexture.release();
-            videoSurfaceTexture = null;
-        }
+        attachedRenderer = null;
+        invalidatePrefetch();
+        // A stopped handler is never restarted; the engine creates a new one
+        prefetcher.shutdown();
+        imageExecutor.shutdownNow();
         currentMedia = null;
         isVideoPlaying = false;
     }
 
+    /**
+     * Drops prefetched images and pre-rolled random picks. Must be called
+     * whenever the playlist, ordering or tag filter changes.
+     */
+    public void invalidatePrefetch() {
+        synchronized (lock) {
+            randomQueue.clear();
+        }
+        dropPreloadedVideo();
+        prefetcher.invalidate();
+    }
+
     public boolean isStarted() {
         return runnable;
     }
@@ -475,14 +655,7 @@ public class CurrentMediaHandler {
                 if (imageTimerRunnable != null) {
                     mainHandler.removeCallbacks(imageTimerRunnable);
                 }
-                // Use a Handler to avoid Thread issues if called from background
-                mainHandler.post(() -> {
-                    try {
-                        loadNewMedia(context, Direction.NEXT, true);
-                    } catch (IOException e) {
-                        Log.e(TAG, "Error loading next media", e);
-                    }
-                });
+                withPlaylist(() -> loadNewMedia(context, Direction.NEXT, true));
             }
         }
     }
@@ -494,68 +667,136 @@ public class CurrentMediaHandler {
                 if (imageTimerRunnable != null) {
                     mainHandler.removeCallbacks(imageTimerRunnable);
                 }
-                // Use a Handler to avoid Thread issues if called from background
-                mainHandler.post(() -> {
-                    try {
-                        loadNewMedia(context, Direction.PREVIOUS, true);
-                    } catch (IOException e) {
-                        Log.e(TAG, "Error loading previous media", e);
-                    }
-                });
+                withPlaylist(() -> loadNewMedia(context, Direction.PREVIOUS, true));
             }
         }
     }
 
+    /**
+     * Brings the playlist snapshot up to date on {@link #imageExecutor}, then
+     * runs {@code action} on the main thread. Building it queries the database
+     * (and migrates it on first use), which must stay off the main thread;
+     * there only {@link #playlist()} is read.
+     */
+    private void withPlaylist(Runnable action) {
+        try {
+            imageExecutor.execute(() -> {
+                manager.getPlaylist();
+                mainHandler.post(action);
+            });
+        } catch (RejectedExecutionException e) {
+            // Stopped from another thread in the meantime
+        }
+    }
+
+    /** The playlist as last built in the background; never queries the database. */
+    private Playlist playlist() {
+        Playlist playlist = manager.getLastPlaylist();
+        return playlist != null ? playlist : Playlist.EMPTY;
+    }
+
     private enum Direction {
         NEXT, PREVIOUS
     }
 
-    private boolean loadNewMedia(Context context, Direction direction, boolean isForced) throws IOException {
+    /**
+     * Picks the next uri and decodes it once on {@link #imageExecutor}; the
+     * result is shown on the main thread by {@link #showMedia(MediaInfo, int)}.
+     */
+    private boolean loadNewMedia(Context context, Direction direction, boolean isForced) {
         synchronized (lock) {
+            // Posted before stop(); the decode thread is gone
+            if (!runnable) return false;
+            // The GPU limits are needed before the first decode
+            ensureRenderer();
+            final DecodeTarget target = decodeTarget();
+            prefetcher.setTarget(target);
             Uri uri = getNextUri(context, direction, isForced);
             boolean result = false;
             if (uri != null) {
-                MediaInfo.MediaType type = MediaInfo.determineType(context, uri);
-                currentMedia = MediaLoader.loadMedia(uri, context, width, height, type);
-
-                if (currentMedia != null) {
-                    boolean isVideo = currentMedia.isVideo();
-                    Log.d(TAG, "Loading " + (isVideo ? "video" : "image") + ": " + uri);
-
-                    notifyNextMediaListeners(currentMedia);
-
-                    // Use unified prepareMedia for both types
-                    mainHandler.post(() -> prepareMedia(uri, isVideo));
-
-                    result = true;
-                }
+                final int request = ++mediaRequest;
+                imageExecutor.execute(() -> {
+                    MediaInfo media = null;
+                    try {
+                        MediaInfo.MediaType type = MediaInfo.determineType(context, uri);
+                        Bitmap prefetched = type == MediaInfo.MediaType.IMAGE ? prefetcher.take(uri) : null;
+                        if (prefetched != null) {
+                            String fileName = uri.getLastPathSegment();
+                            media = new MediaInfo(uri, fileName != null ? fileName : "Unknown", 0, prefetched, type);
+                            Log.d(TAG, "Using prefetched image: " + uri);
+                        } else {
+                            media = MediaLoader.loadMedia(uri, context, target, type);
+                        }
+                    } catch (IOException | SecurityException e) {
+                        Log.e(TAG, "Error loading media " + uri, e);
+                    }
+                    final MediaInfo loaded = media;
+                    mainHandler.post(() -> showMedia(loaded, request));
+                });
+                result = true;
             }
             return result;
         }
     }
 
+    private void showMedia(MediaInfo media, int request) {
+        if (request != mediaRequest || !runnable) {
+            // A newer slide was requested while this one was decoding
+            return;
+        }
+        if (media == null || (!media.isVideo() && media.getImage() == null)) {
+            if (++failedSlides >= Math.max(playlist().size(), 1)) {
+                // Nothing in the playlist loads (revoked permission, deleted files):
+                // wait a slide interval before the next round instead of spinning
+                Log.w(TAG, "No slide could be loaded, retrying after the slide interval");
+                failedSlides = 0;
+                scheduleNextMedia();
+            } else {
+                forceNextMedia(context);
+            }
+            return;
+        }
+        failedSlides = 0;
+        currentMedia = media;
+        boolean isVideo = media.isVideo();
+        if (isVideo && !playbackPolicy.showsVideos() && media.getImage() != null) {
+            // Throttled: the poster frame MediaLoader extracted stands in as a still image
+            Log.d(TAG, "Showing poster frame instead of video (" + playbackPolicy + ")");
+            isVideo = false;
+        }
+        Log.d(TAG, "Loading " + (isVideo ? "video" : "image") + ": " + media.getUri());
+
+        notifyNextMediaListeners(media);
+
+        // Use unified prepareMedia for both types
+        prepareMedia(media.getUri(), isVideo, media.getImage());
+    }
+
     private Uri getNextUri(Context context, Direction direction, boolean isForced) {
         Uri result = null;
         Resources resources = context.getResources();
         SharedPreferencesManager.Ordering ordering = manager.getCurrentOrdering(resources);
-        int countUris = manager.getImageUrisCount();
+        Playlist playlist = playlist();
+        int countUris = playlist.size();
 
         if (countUris > 0) {
             int nextIndex;
             if (ordering == SharedPreferencesManager.Ordering.RANDOM) {
                 // For Random: pick a truly random index
                 if (countUris > 1) {
-                    int currentIndexVal = manager.getCurrentIndex();
-                    java.util.Random random = new java.util.Random();
-                    do {
-                        nextIndex = random.nextInt(countUris);
-                    } while (nextIndex == currentIndexVal);
+                    int currentIndexVal = manager.getCurrentIndex(playlist);
+                    Integer queued = direction == Direction.NEXT ? randomQueue.poll() : null;
+                    if (queued != null && queued < countUris && queued != currentIndexVal) {
+                        nextIndex = queued;
+                    } else {
+                        nextIndex = pickRandomIndex(countUris, currentIndexVal);
+                    }
                 } else {
                     nextIndex = 0;
                 }
             } else {
                 // For Selection: pick next/previous sequentially
-                nextIndex = manager.getCurrentIndex();
+                nextIndex = manager.getCurrentIndex(playlist);
                 if (direction == Direction.PREVIOUS) {
                     nextIndex--;
                     if (nextIndex < 0) {
@@ -572,13 +813,55 @@ public class CurrentMediaHandler {
             manager.setCurrentIndex(nextIndex);
             manager.setLastUpdate(System.currentTimeMillis());
 
-            result = manager.getImageUri(nextIndex);
+            result = playlist.get(nextIndex);
             currentIndex = nextIndex;
+
+            schedulePrefetch(ordering, nextIndex, countUris);
         }
 
         return result;
     }
 
+    private int pickRandomIndex(int countUris, int excluded) {
+        int index;
+        do {
+            index = random.nextInt(countUris);
+        } while (index == excluded);
+        return index;
+    }
+
+    /**
+     * Queues decoding of the slides likely to follow {@code index}: the next
+     * {@link #PREFETCH_AHEAD} entries plus the previous one for swipe-back in
+     * selection order, or the pre-rolled random picks in random order.
+     */
+    private void schedulePrefetch(SharedPreferencesManager.Ordering ordering, int index, int countUris) {
+        if (countUris <= 1) {
+            return;
+        }
+        int[] indices;
+        if (ordering == SharedPreferencesManager.Ordering.RANDOM) {
+            int last = randomQueue.isEmpty() ? index : randomQueue.peekLast();
+            while (randomQueue.size() < PREFETCH_AHEAD) {
+                last = pickRandomIndex(countUris, last);
+                randomQueue.add(last);
+            }
+            indices = new int[randomQueue.size()];
+            int i = 0;
+            for (Integer queued : randomQueue) {
+                indices[i++] = queued;
+            }
+        } else {
+            int ahead = Math.min(PREFETCH_AHEAD, countUris - 1);
+            indices = new int[ahead + 1];
+            for (int i = 0; i < ahead; i++) {
+                indices[i] = (index + 1 + i) % countUris;
+            }
+            indices[ahead] = (index - 1 + countUris) % countUris;
+        }
+        prefetcher.prefetch(indices);
+    }
+
     private int getDelaySeconds(Context context) {
         int seconds = 5;
         try {
@@ -0,0 +1,71 @@
+package com.ojitos369.lumaloop.utilities;
+
+import com.ojitos369.lumaloop.preferences.SharedPreferencesManager.TooWideImagesRule;
+
+/**
+ * Size images are decoded to before they become textures: just enough to
+ * show them at full surface resolution in the current display mode, never
+ * upscaled and never above the GPU's texture size limit.
+ */
+public final class DecodeTarget {
+    /** Texture size every OpenGL ES 2 device in practice supports, used until the GPU is queried. */
+    static final int DEFAULT_MAX_TEXTURE_SIZE = 2048;
+
+    private final int surfaceWidth;
+    private final int surfaceHeight;
+    private final TooWideImagesRule mode;
+    private final int maxTextureSize;
+    private final boolean hardwareBitmaps;
+
+    public DecodeTarget(int surfaceWidth, int surfaceHeight, TooWideImagesRule mode, int maxTextureSize,
+                        boolean hardwareBitmaps) {
+        this.surfaceWidth = Math.max(surfaceWidth, 1);
+        this.surfaceHeight = Math.max(surfaceHeight, 1);
+        this.mode = mode != null ? mode : TooWideImagesRule.SCALE_DOWN;
+        this.maxTextureSize = maxTextureSize > 0 ? maxTextureSize : DEFAULT_MAX_TEXTURE_SIZE;
+        this.hardwareBitmaps = hardwareBitmaps;
+    }
+
+    /** Whether the renderer takes hardware bitmaps, see {@link GLRenderThread#usesHardwareImages()}. */
+    public boolean allowsHardwareBitmaps() {
+        return hardwareBitmaps;
+    }
+
+    public int getSurfaceWidth() {
+        return surfaceWidth;
+    }
+
+    public int getSurfaceHeight() {
+        return surfaceHeight;
+    }
+
+    /**
+     * Scale factor (at most 1) for an upright image of the given size. Fit
+     * mode keeps the whole image inside the surface. The filling and scroll
+     * modes cover it, so the renderer never has to stretch the texture; only
+     * the texture size limit can take an image below that.
+     */
+    public float scaleFor(int imageWidth, int imageHeight) {
+        if (imageWidth <= 0 || imageHeight <= 0) return 1f;
+        float scaleX = (float) surfaceWidth / imageWidth;
+        float scaleY = (float) surfaceHeight / imageHeight;
+        float scale = mode == TooWideImagesRule.SCALE_DOWN ? Math.min(scaleX, scaleY) : Math.max(scaleX, scaleY);
+        scale = Math.min(scale, Math.min((float) maxTextureSize / imageWidth, (float) maxTextureSize / imageHeight));
+        return Math.min(scale, 1f);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DecodeTarget)) return false;
+        DecodeTarget other = (DecodeTarget) o;
+        return surfaceWidth == other.surfaceWidth && surfaceHeight == other.surfaceHeight
+                && mode == other.mode && maxTextureSize == other.maxTextureSize
+                && hardwareBitmaps == other.hardwareBitmaps;
+    }
+
+    @Override
+    public int hashCode() {
+        return (((surfaceWidth * 31 + surfaceHeight) * 31 + mode.hashCode()) * 31 + maxTextureSize) * 2
+                + (hardwareBitmaps ? 1 : 0);
+    }
+}
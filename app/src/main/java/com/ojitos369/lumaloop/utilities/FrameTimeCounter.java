@@ -0,0 +1,55 @@
+package com.ojitos369.lumaloop.utilities;
+
+import android.util.Log;
+
+/**
+ * Running statistics of per-frame CPU time. Logs a summary every
+ * {@link #LOG_INTERVAL_FRAMES} frames so the cost of a render path can be
+ * compared before and after a change with {@code adb logcat}. Not
+ * thread-safe; record from the render thread only.
+ */
+public class FrameTimeCounter {
+    private static final int LOG_INTERVAL_FRAMES = 600;
+
+    private final String tag;
+    private long frames;
+    private long totalNanos;
+    private long maxNanos;
+
+    public FrameTimeCounter(String tag) {
+        this.tag = tag;
+    }
+
+    public void record(long nanos) {
+        frames++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        if (frames == LOG_INTERVAL_FRAMES) {
+            logSummary();
+        }
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /** Average CPU time per frame in microseconds since the last summary, or 0. */
+    public long getAverageMicros() {
+        return frames == 0 ? 0 : totalNanos / frames / 1000;
+    }
+
+    public long getMaxMicros() {
+        return maxNanos / 1000;
+    }
+
+    /** Logs and resets the counters. */
+    public void logSummary() {
+        if (frames > 0) {
+            Log.d(tag, "Frame CPU time over " + frames + " frames: avg " + getAverageMicros()
+                    + " us, max " + getMaxMicros() + " us");
+        }
+        frames = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+}
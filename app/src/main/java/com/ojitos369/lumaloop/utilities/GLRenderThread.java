@@ -0,0 +1,414 @@
+package com.ojitos369.lumaloop.utilities;
+
+import android.graphics.Bitmap;
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.ojitos369.lumaloop.preferences.SharedPreferencesManager;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dedicated thread that owns the EGL context of a {@link GLWallpaperRenderer}.
+ * Every GL call, texture upload and buffer swap runs here, so the main
+ * looper only posts requests. Drawing is paced by {@link Choreographer}
+ * vsync callbacks: a cross-fade renders exactly one frame per vsync with its
+ * progress taken from the frame time, and video frames are drawn at most
+ * once per vsync however fast the decoder produces them.
+ * <p>
+ * One layer of the renderer is visible at a time; {@link #fadeToImage} and
+ * {@link #fadeToVideo} cross-fade to another one, whatever the media types
+ * on either side.
+ */
+public class GLRenderThread implements Choreographer.FrameCallback {
+    private static final String TAG = "GLRenderThread";
+    // Surface creation and teardown must finish before the surface callbacks return
+    private static final long BLOCKING_TIMEOUT_MS = 2000;
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final GLWallpaperRenderer renderer = new GLWallpaperRenderer();
+
+    // Vsync jitter allowance, so a 30 fps cap on a 60 Hz display does not drop to 20 fps
+    private static final long VIDEO_FRAME_SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    // Written on the render thread, read by callers to check initialization
+    private volatile boolean ready;
+    private volatile int maxTextureSize;
+    private volatile boolean hardwareImages;
+    private volatile long textureBytes;
+    private volatile Surface[] videoSurfaces;
+
+    // Everything below is only touched on the render thread
+    private Choreographer choreographer;
+    private boolean frameScheduled;
+    // Video outputs are kept for the renderer's lifetime so the players' decoders
+    // never have to reconnect to a new surface between clips
+    private final SurfaceTexture[] videoTextures = new SurfaceTexture[GLWallpaperRenderer.VIDEO_OUTPUTS];
+    private final boolean[] videoFrameAvailable = new boolean[GLWallpaperRenderer.VIDEO_OUTPUTS];
+    // A frame of the output's current clip is latched; until then it still holds the previous clip
+    private final boolean[] videoFresh = new boolean[GLWallpaperRenderer.VIDEO_OUTPUTS];
+    private final float[] videoTexMatrix = new float[16];
+    private int visibleLayer = GLWallpaperRenderer.LAYER_IMAGE;
+    // Layer being faded in, or -1 outside of transitions
+    private int incomingLayer = -1;
+    // Framing changed: the current image or video frame has to be drawn again
+    private boolean invalidated;
+    // Video frame rate cap: 0, or the shortest time between two drawn video frames
+    private long minVideoFrameNanos;
+    private long lastVideoDrawNanos;
+    // A latched video frame is waiting for the cap interval to pass
+    private boolean videoDrawPending;
+    private long transitionStartNanos;
+    // Frame time of the previous transition frame, 0 before the first one
+    private long lastTransitionFrameNanos;
+    // When the incoming video was requested, for its time to first frame; 0 for images
+    private long videoRequestedNanos;
+    private long transitionDurationNanos;
+    private Runnable transitionFinished;
+
+    /**
+     * Starts the thread and creates the EGL surface for {@code holder},
+     * blocking until it is ready. Check {@link #isReady()} afterwards.
+     */
+    public GLRenderThread(SurfaceHolder holder) {
+        thread = new HandlerThread(TAG);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        runBlocking(() -> {
+            choreographer = Choreographer.getInstance();
+            try {
+                renderer.setImageFrameListener(handler, this::scheduleFrame);
+                renderer.setSurface(holder);
+                maxTextureSize = renderer.getMaxTextureSize();
+                hardwareImages = renderer.usesHardwareImages();
+                // Assigned first, so release() finds whatever was created if a later output fails
+                Surface[] surfaces = new Surface[GLWallpaperRenderer.VIDEO_OUTPUTS];
+                videoSurfaces = surfaces;
+                for (int i = 0; i < surfaces.length; i++) {
+                    final int output = i;
+                    videoTextures[i] = new SurfaceTexture(renderer.getVideoTextureId(i));
+                    videoTextures[i].setOnFrameAvailableListener(surfaceTexture -> {
+                        videoFrameAvailable[output] = true;
+                        scheduleFrame();
+                    }, handler);
+                    surfaces[i] = new Surface(videoTextures[i]);
+                }
+                ready = true;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not initialize EGL", e);
+            }
+        });
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /** GL_MAX_TEXTURE_SIZE of the GPU this thread renders with. */
+    public int getMaxTextureSize() {
+        return maxTextureSize;
+    }
+
+    /**
+     * Whether images can be hardware bitmaps: they are drawn into external
+     * textures on the GPU instead of being uploaded from CPU memory.
+     */
+    public boolean usesHardwareImages() {
+        return hardwareImages;
+    }
+
+    /** Bytes of texture memory held by the image textures. */
+    public long getTextureBytes() {
+        return textureBytes;
+    }
+
+    /**
+     * Surface a video player renders into, one per output below
+     * {@link GLWallpaperRenderer#VIDEO_OUTPUTS}; valid until {@link #release()}.
+     * Frames are latched whether or not the output is visible, so a player
+     * never stalls on a full buffer queue.
+     */
+    public Surface getVideoSurface(int output) {
+        return videoSurfaces[output];
+    }
+
+    /**
+     * Marks {@code output} as loading a new clip: it is not faded in or
+     * drawn until that clip's first frame arrives.
+     */
+    public void resetVideoOutput(int output) {
+        handler.post(() -> videoFresh[output] = false);
+    }
+
+    public void setSurfaceSize(int width, int height) {
+        handler.post(() -> {
+            if (!ready) return;
+            renderer.setSurfaceSize(width, height);
+            invalidate();
+        });
+    }
+
+    public void setDisplayMode(SharedPreferencesManager.TooWideImagesRule mode) {
+        handler.post(() -> {
+            renderer.setDisplayMode(mode);
+            invalidate();
+        });
+    }
+
+    /**
+     * Draws video frames at most {@code fps} times per second, 0 for every
+     * frame. Frames in between are still latched, so the decoder never
+     * stalls, but skip composition and the buffer swap.
+     */
+    public void setMaxVideoFps(int fps) {
+        handler.post(() -> minVideoFrameNanos = fps > 0 ? TimeUnit.SECONDS.toNanos(1) / fps : 0);
+    }
+
+    /** Effect of the transitions drawn from now on. */
+    public void setTransitionEffect(SharedPreferencesManager.TransitionEffect effect) {
+        handler.post(() -> renderer.setTransitionEffect(effect));
+    }
+
+    /**
+     * Pans the scrolling display modes; only a uniform changes, and any
+     * number of calls between two vsyncs result in a single redraw.
+     */
+    public void setScrollPosition(float position) {
+        handler.post(() -> {
+            renderer.setScrollPosition(position);
+            if (renderer.isScrolling()) {
+                invalidate();
+            }
+        });
+    }
+
+    public void setVideoSize(int output, int width, int height) {
+        handler.post(() -> {
+            renderer.setVideoSize(output, width, height);
+            invalidate();
+        });
+    }
+
+    private void invalidate() {
+        invalidated = true;
+        scheduleFrame();
+    }
+
+    /**
+     * Cross-fades from whatever is visible to {@code next} over
+     * {@code durationMs}. {@code onFinished} runs on the main thread once the
+     * final frame is on screen; it is dropped if another transition replaces
+     * this one.
+     */
+    public void fadeToImage(Bitmap next, long durationMs, Runnable onFinished) {
+        handler.post(() -> {
+            if (!ready) return;
+            finishTransitionNow();
+            long start = System.nanoTime();
+            renderer.uploadNextImage(next);
+            WallpaperTelemetry.get().record(WallpaperTelemetry.Metric.UPLOAD, (System.nanoTime() - start) / 1000);
+            textureBytes = renderer.getTextureBytes();
+            WallpaperTelemetry.get().setTextureBytes(textureBytes);
+            startTransition(GLWallpaperRenderer.LAYER_NEXT_IMAGE, durationMs, onFinished);
+            videoRequestedNanos = 0;
+        });
+    }
+
+    /**
+     * Cross-fades from whatever is visible to video output {@code output},
+     * starting with the first frame of its clip. Both sides keep updating
+     * during the fade, so a clip fading out keeps playing under the new one.
+     * {@code onFinished} behaves as in {@link #fadeToImage}.
+     */
+    public void fadeToVideo(int output, long durationMs, Runnable onFinished) {
+        long requested = System.nanoTime();
+        handler.post(() -> {
+            if (!ready) return;
+            finishTransitionNow();
+            startTransition(GLWallpaperRenderer.LAYER_VIDEO + output, durationMs, onFinished);
+            videoRequestedNanos = requested;
+        });
+    }
+
+    private void startTransition(int layer, long durationMs, Runnable onFinished) {
+        incomingLayer = layer;
+        // Starts at the first vsync the layer is ready, so the upload or decoder start does not eat into the fade
+        transitionStartNanos = -1;
+        lastTransitionFrameNanos = 0;
+        transitionDurationNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(durationMs));
+        transitionFinished = onFinished;
+        scheduleFrame();
+    }
+
+    /** Jumps a running transition to its end state without running its callback. */
+    private void finishTransitionNow() {
+        if (incomingLayer < 0) return;
+        if (incomingLayer == GLWallpaperRenderer.LAYER_NEXT_IMAGE) {
+            renderer.swapTextures();
+            visibleLayer = GLWallpaperRenderer.LAYER_IMAGE;
+        } else {
+            visibleLayer = incomingLayer;
+        }
+        incomingLayer = -1;
+        transitionFinished = null;
+        invalidated = true;
+    }
+
+    private boolean isLayerReady(int layer) {
+        switch (layer) {
+            case GLWallpaperRenderer.LAYER_IMAGE:
+                return renderer.isImageReady();
+            case GLWallpaperRenderer.LAYER_NEXT_IMAGE:
+                return renderer.isNextImageReady();
+            default:
+                return videoFresh[layer - GLWallpaperRenderer.LAYER_VIDEO];
+        }
+    }
+
+    private void scheduleFrame() {
+        if (!frameScheduled && ready) {
+            frameScheduled = true;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        if (!ready) return;
+        renderer.latchImages();
+        boolean videoChanged = latchVideoFrames() || videoDrawPending;
+        if (videoChanged && incomingLayer < 0 && !invalidated
+                && frameTimeNanos - lastVideoDrawNanos < minVideoFrameNanos - VIDEO_FRAME_SLACK_NANOS) {
+            // Over the cap: the newest frame is drawn once the interval is up
+            videoDrawPending = true;
+            scheduleFrame();
+            return;
+        }
+        videoDrawPending = false;
+        boolean visibleChanged = videoChanged || invalidated;
+
+        if (incomingLayer >= 0 && transitionStartNanos < 0) {
+            if (isLayerReady(incomingLayer)) {
+                transitionStartNanos = frameTimeNanos;
+                if (videoRequestedNanos > 0) {
+                    WallpaperTelemetry.get().record(WallpaperTelemetry.Metric.VIDEO_FIRST_FRAME,
+                            (System.nanoTime() - videoRequestedNanos) / 1000);
+                    videoRequestedNanos = 0;
+                }
+            } else if (visibleChanged && isLayerReady(visibleLayer)) {
+                // Keep the outgoing video moving; frame listeners schedule the next attempt
+                renderer.drawLayer(visibleLayer);
+                invalidated = false;
+                return;
+            } else {
+                return;
+            }
+        }
+
+        if (incomingLayer >= 0) {
+            if (lastTransitionFrameNanos > 0) {
+                WallpaperTelemetry.get().record(WallpaperTelemetry.Metric.TRANSITION_FRAME,
+                        (frameTimeNanos - lastTransitionFrameNanos) / 1000);
+            }
+            lastTransitionFrameNanos = frameTimeNanos;
+            float progress = (float) (frameTimeNanos - transitionStartNanos) / transitionDurationNanos;
+            if (progress < 1f) {
+                renderer.drawLayers(visibleLayer, incomingLayer, progress);
+                scheduleFrame();
+            } else {
+                Runnable finished = transitionFinished;
+                finishTransitionNow();
+                renderer.drawLayer(visibleLayer);
+                if (finished != null) {
+                    mainHandler.post(finished);
+                }
+            }
+        } else if (visibleChanged) {
+            if (!isLayerReady(visibleLayer)) return;
+            renderer.drawLayer(visibleLayer);
+            lastVideoDrawNanos = frameTimeNanos;
+        }
+        invalidated = false;
+    }
+
+    /**
+     * Latches the frames that arrived on the video outputs. Returns whether
+     * the visible layer got a new one.
+     */
+    private boolean latchVideoFrames() {
+        boolean visibleChanged = false;
+        for (int i = 0; i < videoTextures.length; i++) {
+            if (!videoFrameAvailable[i]) continue;
+            videoFrameAvailable[i] = false;
+            try {
+                videoTextures[i].updateTexImage();
+                videoTextures[i].getTransformMatrix(videoTexMatrix);
+                renderer.setVideoTexMatrix(i, videoTexMatrix);
+                videoFresh[i] = true;
+                visibleChanged |= visibleLayer == GLWallpaperRenderer.LAYER_VIDEO + i;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error latching video frame", e);
+            }
+        }
+        return visibleChanged;
+    }
+
+    /**
+     * Destroys the EGL surface and context and stops the thread. Blocks until
+     * done, so the window surface can be destroyed right after.
+     */
+    public void release() {
+        runBlocking(() -> {
+            if (choreographer != null) {
+                choreographer.removeFrameCallback(this);
+            }
+            frameScheduled = false;
+            ready = false;
+            incomingLayer = -1;
+            transitionFinished = null;
+            Surface[] surfaces = videoSurfaces;
+            for (int i = 0; i < videoTextures.length; i++) {
+                if (surfaces != null && surfaces[i] != null) {
+                    surfaces[i].release();
+                }
+                if (videoTextures[i] != null) {
+                    videoTextures[i].release();
+                    videoTextures[i] = null;
+                }
+            }
+            videoSurfaces = null;
+            renderer.release();
+        });
+        thread.quitSafely();
+    }
+
+    private void runBlocking(Runnable task) {
+        CountDownLatch done = new CountDownLatch(1);
+        long start = SystemClock.uptimeMillis();
+        handler.post(() -> {
+            try {
+                task.run();
+            } finally {
+                done.countDown();
+            }
+        });
+        try {
+            if (!done.await(BLOCKING_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Render thread did not respond in " + (SystemClock.uptimeMillis() - start) + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,13 +1,20 @@
 package com.ojitos369.lumaloop.utilities;
 
-import android.content.Context;
 import android.graphics.Bitmap;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
+import android.opengl.Matrix;
+import android.os.Build;
+import android.os.Handler;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
+import androidx.annotation.RequiresApi;
+
+import com.ojitos369.lumaloop.preferences.SharedPreferencesManager.TooWideImagesRule;
+import com.ojitos369.lumaloop.preferences.SharedPreferencesManager.TransitionEffect;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
@@ -18,9 +25,27 @@ import javax.microedition.khronos.egl.EGLContext;
 import javax.microedition.khronos.egl.EGLDisplay;
 import javax.microedition.khronos.egl.EGLSurface;
 
+/**
+ * Draws images, video frames and cross-fades between any two of them with
+ * OpenGL ES 2. Everything that can be shown is a layer: the two image slots
+ * and {@link #VIDEO_OUTPUTS} external video textures, composited two at a
+ * time by {@link #drawLayers(int, int, float)} with the selected
+ * {@link TransitionEffect}. Not thread-safe: all methods
+ * must be called on the thread that owns the EGL context, see
+ * {@link GLRenderThread}.
+ */
 public class GLWallpaperRenderer {
     private static final String TAG = "GLWallpaperRenderer";
 
+    /** The image on screen outside of transitions. */
+    public static final int LAYER_IMAGE = 0;
+    /** The image a transition fades to; it becomes {@link #LAYER_IMAGE} with {@link #swapTextures()}. */
+    public static final int LAYER_NEXT_IMAGE = 1;
+    /** Video output 0; output {@code i} is layer {@code LAYER_VIDEO + i}. */
+    public static final int LAYER_VIDEO = 2;
+    /** Video outputs, so the outgoing and incoming clip of a fade can be decoded at once. */
+    public static final int VIDEO_OUTPUTS = 2;
+
     private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
     private static final int EGL_OPENGL_ES2_BIT = 4;
 
@@ -30,28 +55,56 @@ public class GLWallpaperRenderer {
     private EGLSurface eglSurface;
     private EGLConfig eglConfig;
 
-    private int programImage;
-    private int programVideo;
+    // Compositing programs by effect and sampler types of the two layers, see programIndex.
+    // All are compiled in initGL, so switching effects never compiles a shader mid-slideshow
+    private final CompositeProgram[] programs = new CompositeProgram[TransitionEffect.values().length * 4];
+    private TransitionEffect transitionEffect = TransitionEffect.CROSS_FADE;
     private int textureIdImage = -1;
     private int textureIdImageNext = -1;
-    private int textureIdVideo = -1;
-
-    private FloatBuffer vertexBuffer;
-    private FloatBuffer textureBuffer;
-
-    private static final float[] VERTICES = {
-            -1.0f, -1.0f,
-            1.0f, -1.0f,
-            -1.0f, 1.0f,
-            1.0f, 1.0f
-    };
-
-    private static final float[] TEX_COORDS = {
-            0.0f, 1.0f,
-            1.0f, 1.0f,
-            0.0f, 0.0f,
-            1.0f, 0.0f
+    private final int[] videoTextureIds = new int[VIDEO_OUTPUTS];
+
+    // Framing: media sizes per texture slot and the surface they are fitted into
+    private TooWideImagesRule displayMode = TooWideImagesRule.SCALE_DOWN;
+    private int surfaceWidth;
+    private int surfaceHeight;
+    // Horizontal position of scrolling modes, 0 = left edge, 1 = right edge
+    private float scrollPosition = 0.5f;
+    // Sizes of the bitmaps last uploaded to the two image textures, which is also their allocated size
+    private final int[] imageSize = new int[2];
+    private final int[] nextImageSize = new int[2];
+    private int maxTextureSize;
+    // Hardware path: images are drawn into external textures instead of uploaded, see SurfaceImageTexture
+    private Handler imageFrameHandler;
+    private Runnable imageFrameListener;
+    private boolean hardwareImages;
+    private SurfaceImageTexture imageSurface;
+    private SurfaceImageTexture nextImageSurface;
+    private final int[][] videoSizes = new int[VIDEO_OUTPUTS][2];
+    private final float[][] videoTexMatrices = new float[VIDEO_OUTPUTS][16];
+    private final float[] transform = new float[4];
+
+    private int quadBuffer;
+    // Program whose attributes are currently set up, to skip redundant state changes
+    private CompositeProgram currentProgram;
+
+    private final FrameTimeCounter frameTimes = new FrameTimeCounter(TAG);
+
+    // Full screen quad as a triangle strip: x, y, u, v per vertex
+    private static final float[] QUAD = {
+            -1.0f, -1.0f, 0.0f, 1.0f,
+            1.0f, -1.0f, 1.0f, 1.0f,
+            -1.0f, 1.0f, 0.0f, 0.0f,
+            1.0f, 1.0f, 1.0f, 0.0f
     };
+    private static final int FLOAT_BYTES = 4;
+    private static final int QUAD_STRIDE = 4 * FLOAT_BYTES;
+
+    // Texture coordinates are mapped per texture as uv = vTexCoord * uTransform.xy + uTransform.zw;
+    // everything outside the texture is drawn black, which gives the letterbox of the fit mode
+    private static final String FRAME_FUNCTION = "vec4 frame(vec4 color, vec2 uv) {\n" +
+            "  vec2 inside = step(vec2(0.0), uv) * step(uv, vec2(1.0));\n" +
+            "  return color * inside.x * inside.y;\n" +
+            "}\n";
 
     private static final String VERTEX_SHADER = "attribute vec4 aPosition;\n" +
             "attribute vec2 aTexCoord;\n" +
@@ -61,33 +114,119 @@ public class GLWallpaperRenderer {
             "  vTexCoord = aTexCoord;\n" +
             "}\n";
 
-    private static final String FRAGMENT_SHADER_IMAGE = "precision mediump float;\n" +
-            "uniform sampler2D uTexture;\n" +
-            "uniform sampler2D uTextureNext;\n" +
-            "uniform float uMix;\n" +
-            "varying vec2 vTexCoord;\n" +
-            "void main() {\n" +
-            "  vec4 color1 = texture2D(uTexture, vTexCoord);\n" +
-            "  vec4 color2 = texture2D(uTextureNext, vTexCoord);\n" +
-            "  gl_FragColor = mix(color1, color2, uMix);\n" +
-            "}\n";
+    /**
+     * Fragment shader mixing layer {@code uTexture} into {@code uTextureNext}
+     * as {@code uMix} goes from 0 to 1, each framed by its own transform. The
+     * effect moves the screen positions {@code p1}/{@code p2} sampled from
+     * each layer and sets the blend weight {@code w}. 2D textures are
+     * sampled directly; external textures (video, and images on the hardware
+     * path) go through their SurfaceTexture matrix, which expects coordinates
+     * with the origin at the bottom left, so v is flipped before applying it.
+     */
+    private static String compositeShader(TransitionEffect effect, boolean external, boolean externalNext) {
+        StringBuilder shader = new StringBuilder();
+        if (external || externalNext) {
+            shader.append("#extension GL_OES_EGL_image_external : require\n");
+        }
+        return shader.append("precision mediump float;\n")
+                .append("uniform ").append(samplerType(external)).append(" uTexture;\n")
+                .append("uniform ").append(samplerType(externalNext)).append(" uTextureNext;\n")
+                .append("uniform float uMix;\n")
+                .append("uniform vec4 uTransform;\n")
+                .append("uniform vec4 uTransformNext;\n")
+                .append("uniform mat4 uTexMatrix;\n")
+                .append("uniform mat4 uTexMatrixNext;\n")
+                .append("varying vec2 vTexCoord;\n")
+                .append(FRAME_FUNCTION)
+                .append("void main() {\n")
+                .append("  vec2 p1 = vTexCoord;\n")
+                .append("  vec2 p2 = vTexCoord;\n")
+                .append("  float w = uMix;\n")
+                .append(effectBody(effect))
+                .append("  vec2 uv1 = p1 * uTransform.xy + uTransform.zw;\n")
+                .append("  vec2 uv2 = p2 * uTransformNext.xy + uTransformNext.zw;\n")
+                .append("  vec4 color1 = frame(texture2D(uTexture, ").append(sampleCoord("uv1", "uTexMatrix", external))
+                .append("), uv1);\n")
+                .append("  vec4 color2 = frame(texture2D(uTextureNext, ")
+                .append(sampleCoord("uv2", "uTexMatrixNext", externalNext)).append("), uv2);\n")
+                .append("  gl_FragColor = mix(color1, color2, w);\n")
+                .append("}\n")
+                .toString();
+    }
 
-    private static final String FRAGMENT_SHADER_VIDEO = "#extension GL_OES_EGL_image_external : require\n" +
-            "precision mediump float;\n" +
-            "uniform samplerExternalOES uTexture;\n" +
-            "varying vec2 vTexCoord;\n" +
-            "void main() {\n" +
-            "  gl_FragColor = texture2D(uTexture, vTexCoord);\n" +
-            "}\n";
+    /**
+     * Shader statements of {@code effect}, see {@link #compositeShader}. They
+     * only read uniforms and the fragment position, so every effect costs
+     * the same two texture samples per pixel as the cross-fade.
+     */
+    private static String effectBody(TransitionEffect effect) {
+        switch (effect) {
+            case SLIDE:
+                // The next layer pushes the current one out to the left
+                return "  float e = smoothstep(0.0, 1.0, uMix);\n" +
+                        "  p1.x += e;\n" +
+                        "  p2.x += e - 1.0;\n" +
+                        "  w = step(1.0 - e, vTexCoord.x);\n";
+            case ZOOM:
+                // The current layer zooms in while the next one settles from a closer view
+                return "  p1 = (p1 - 0.5) / (1.0 + 0.5 * uMix) + 0.5;\n" +
+                        "  p2 = (p2 - 0.5) / (1.25 - 0.25 * uMix) + 0.5;\n" +
+                        "  w = smoothstep(0.0, 1.0, uMix);\n";
+            case DISSOLVE:
+                // Blocks of 4x4 pixels switch over at a random moment each, from
+                // interleaved gradient noise, whose small operands suit mediump
+                return "  vec2 cell = mod(floor(gl_FragCoord.xy / 4.0), 64.0);\n" +
+                        "  float n = fract(52.9829189 * fract(dot(cell, vec2(0.06711056, 0.00583715))));\n" +
+                        "  w = smoothstep(n, n + 0.1, uMix * 1.1);\n";
+            case KEN_BURNS:
+                // Both layers drift and zoom slightly while they fade, so the
+                // current one leaves and the next one arrives in motion
+                return "  p1 = (p1 - 0.5) / (1.0 + 0.1 * uMix) + 0.5 + vec2(0.03, 0.02) * uMix;\n" +
+                        "  p2 = (p2 - 0.5) / (1.1 - 0.1 * uMix) + 0.5 - vec2(0.03, 0.02) * (1.0 - uMix);\n";
+            case CROSS_FADE:
+            default:
+                return "";
+        }
+    }
 
-    public GLWallpaperRenderer(Context context) {
-        vertexBuffer = ByteBuffer.allocateDirect(VERTICES.length * 4)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        vertexBuffer.put(VERTICES).position(0);
+    private static String samplerType(boolean external) {
+        return external ? "samplerExternalOES" : "sampler2D";
+    }
 
-        textureBuffer = ByteBuffer.allocateDirect(TEX_COORDS.length * 4)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        textureBuffer.put(TEX_COORDS).position(0);
+    private static String sampleCoord(String uv, String texMatrix, boolean external) {
+        return external ? "(" + texMatrix + " * vec4(" + uv + ".x, 1.0 - " + uv + ".y, 0.0, 1.0)).xy" : uv;
+    }
+
+    private static int programIndex(TransitionEffect effect, boolean external, boolean externalNext) {
+        return effect.ordinal() * 4 + ((external ? 2 : 0) | (externalNext ? 1 : 0));
+    }
+
+    /** A linked compositing program and its locations, resolved once. */
+    private static final class CompositeProgram {
+        final int program;
+        final int position;
+        final int texCoord;
+        final int mix;
+        final int transform;
+        final int transformNext;
+        // -1 for 2D layers, where the shader has no use for the matrix
+        final int texMatrix;
+        final int texMatrixNext;
+
+        CompositeProgram(int program) {
+            this.program = program;
+            position = GLES20.glGetAttribLocation(program, "aPosition");
+            texCoord = GLES20.glGetAttribLocation(program, "aTexCoord");
+            mix = GLES20.glGetUniformLocation(program, "uMix");
+            transform = GLES20.glGetUniformLocation(program, "uTransform");
+            transformNext = GLES20.glGetUniformLocation(program, "uTransformNext");
+            texMatrix = GLES20.glGetUniformLocation(program, "uTexMatrix");
+            texMatrixNext = GLES20.glGetUniformLocation(program, "uTexMatrixNext");
+            // Samplers never change unit, so they are set once
+            GLES20.glUseProgram(program);
+            GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "uTexture"), 0);
+            GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "uTextureNext"), 1);
+        }
     }
 
     public void setSurface(SurfaceHolder holder) {
@@ -144,26 +283,107 @@ public class GLWallpaperRenderer {
         eglContext = egl.eglCreateContext(eglDisplay, eglConfig, EGL10.EGL_NO_CONTEXT, attrib_list);
     }
 
+    /**
+     * Enables the hardware image path; must be called before
+     * {@link #setSurface(SurfaceHolder)}. {@code listener} runs on
+     * {@code handler}, which must be the GL thread, whenever an image drawn
+     * into an external texture can be latched.
+     */
+    public void setImageFrameListener(Handler handler, Runnable listener) {
+        imageFrameHandler = handler;
+        imageFrameListener = listener;
+    }
+
+    /** Whether images take the hardware path and can be hardware bitmaps. */
+    public boolean usesHardwareImages() {
+        return hardwareImages;
+    }
+
     private void initGL() {
-        programImage = createProgram(VERTEX_SHADER, FRAGMENT_SHADER_IMAGE);
-        programVideo = createProgram(VERTEX_SHADER, FRAGMENT_SHADER_VIDEO);
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        releaseImageSurfaces();
+        hardwareImages = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && imageFrameHandler != null
+                && extensions != null && extensions.contains("GL_OES_EGL_image_external");
+        // Video layers are always external; image layers only on the hardware path
+        for (TransitionEffect effect : TransitionEffect.values()) {
+            for (boolean external : new boolean[]{hardwareImages, true}) {
+                for (boolean externalNext : new boolean[]{hardwareImages, true}) {
+                    int index = programIndex(effect, external, externalNext);
+                    if (programs[index] == null || programs[index].program == 0) {
+                        programs[index] = new CompositeProgram(
+                                createProgram(VERTEX_SHADER, compositeShader(effect, external, externalNext)));
+                    }
+                }
+            }
+        }
 
-        int[] textures = new int[3];
-        GLES20.glGenTextures(3, textures, 0);
+        int[] limits = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, limits, 0);
+        maxTextureSize = limits[0];
+        imageSize[0] = imageSize[1] = nextImageSize[0] = nextImageSize[1] = 0;
+        for (int i = 0; i < VIDEO_OUTPUTS; i++) {
+            videoSizes[i][0] = videoSizes[i][1] = 0;
+            Matrix.setIdentityM(videoTexMatrices[i], 0);
+        }
+        // The attributes are bound below for whichever program is used first
+        currentProgram = null;
+
+        FloatBuffer quad = ByteBuffer.allocateDirect(QUAD.length * FLOAT_BYTES)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        quad.put(QUAD).position(0);
+        int[] buffers = new int[1];
+        GLES20.glGenBuffers(1, buffers, 0);
+        quadBuffer = buffers[0];
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, quadBuffer);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, QUAD.length * FLOAT_BYTES, quad, GLES20.GL_STATIC_DRAW);
+
+        int[] textures = new int[2];
+        GLES20.glGenTextures(2, textures, 0);
         textureIdImage = textures[0];
         textureIdImageNext = textures[1];
-        textureIdVideo = textures[2];
 
         // Setup Image Textures (2D)
         setupTexture2D(textureIdImage);
         setupTexture2D(textureIdImageNext);
+        if (hardwareImages) {
+            createImageSurfaces();
+        }
+
+        // Video textures (OES), fed by SurfaceTextures the render thread creates
+        for (int i = 0; i < VIDEO_OUTPUTS; i++) {
+            videoTextureIds[i] = SurfaceImageTexture.createTexture();
+        }
+    }
 
-        // Setup Video Texture (OES)
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureIdVideo);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+    private void createImageSurfaces() {
+        imageSurface = new SurfaceImageTexture(SurfaceImageTexture.createTexture(), imageFrameHandler, imageFrameListener);
+        nextImageSurface = new SurfaceImageTexture(SurfaceImageTexture.createTexture(), imageFrameHandler, imageFrameListener);
+    }
+
+    private void releaseImageSurfaces() {
+        if (imageSurface != null) {
+            imageSurface.release();
+            nextImageSurface.release();
+            imageSurface = null;
+            nextImageSurface = null;
+        }
+    }
+
+    /** Latches images drawn into the external textures; a no-op on the upload path. */
+    public void latchImages() {
+        if (hardwareImages) {
+            imageSurface.latch();
+            nextImageSurface.latch();
+        }
+    }
+
+    /** Whether the current image can be drawn; on the hardware path only once it is latched. */
+    public boolean isImageReady() {
+        return !hardwareImages || imageSurface.isReady();
+    }
+
+    public boolean isNextImageReady() {
+        return !hardwareImages || nextImageSurface.isReady();
     }
 
     private void setupTexture2D(int textureId) {
@@ -174,97 +394,259 @@ public class GLWallpaperRenderer {
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
     }
 
-    public int getVideoTextureId() {
-        return textureIdVideo;
+    /** External texture of video output {@code output}, for its SurfaceTexture. */
+    public int getVideoTextureId(int output) {
+        return videoTextureIds[output];
+    }
+
+    /** The SurfaceTexture matrix of the frame last latched into video output {@code output}. */
+    public void setVideoTexMatrix(int output, float[] matrix) {
+        System.arraycopy(matrix, 0, videoTexMatrices[output], 0, 16);
+    }
+
+    /** Sets the surface size the media is framed in and updates the viewport. */
+    public void setSurfaceSize(int width, int height) {
+        surfaceWidth = width;
+        surfaceHeight = height;
+        GLES20.glViewport(0, 0, width, height);
+    }
+
+    public void setDisplayMode(TooWideImagesRule mode) {
+        displayMode = mode != null ? mode : TooWideImagesRule.SCALE_DOWN;
+    }
+
+    /** Effect of {@link #drawLayers(int, int, float)}; a single layer is always drawn plainly. */
+    public void setTransitionEffect(TransitionEffect effect) {
+        transitionEffect = effect != null ? effect : TransitionEffect.CROSS_FADE;
+    }
+
+    /** Position of the scrolling modes, from 0 (left edge) to 1 (right edge). */
+    public void setScrollPosition(float position) {
+        scrollPosition = Math.max(0f, Math.min(1f, position));
+    }
+
+    /** Whether the display mode follows {@link #setScrollPosition(float)}. */
+    public boolean isScrolling() {
+        return displayMode == TooWideImagesRule.SCROLL_FORWARD || displayMode == TooWideImagesRule.SCROLL_BACKWARD;
+    }
+
+    /** Display size of the video on {@code output}, i.e. with the pixel aspect ratio applied. */
+    public void setVideoSize(int output, int width, int height) {
+        videoSizes[output][0] = width;
+        videoSizes[output][1] = height;
+    }
+
+    /** GL_MAX_TEXTURE_SIZE of the GPU, or 0 before the surface is set. */
+    public int getMaxTextureSize() {
+        return maxTextureSize;
+    }
+
+    /** Bytes currently allocated for the two image textures. */
+    public long getTextureBytes() {
+        return 4L * imageSize[0] * imageSize[1] + 4L * nextImageSize[0] * nextImageSize[1];
     }
 
     public void uploadImage(Bitmap bitmap) {
+        if (hardwareImages && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            drawIntoSurface(imageSurface, imageSize, bitmap);
+        } else {
+            upload(textureIdImage, imageSize, bitmap);
+        }
+    }
+
+    public void uploadNextImage(Bitmap bitmap) {
+        if (hardwareImages && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            drawIntoSurface(nextImageSurface, nextImageSize, bitmap);
+        } else {
+            upload(textureIdImageNext, nextImageSize, bitmap);
+        }
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.P)
+    private void drawIntoSurface(SurfaceImageTexture target, int[] size, Bitmap bitmap) {
         if (bitmap == null || bitmap.isRecycled())
             return;
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureIdImage);
-        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        target.draw(bitmap);
+        size[0] = bitmap.getWidth();
+        size[1] = bitmap.getHeight();
     }
 
-    public void uploadNextImage(Bitmap bitmap) {
+    /**
+     * Uploads {@code bitmap}, overwriting the existing storage with
+     * glTexSubImage2D when the texture already has the same size instead of
+     * reallocating it.
+     */
+    private void upload(int textureId, int[] size, Bitmap bitmap) {
         if (bitmap == null || bitmap.isRecycled())
             return;
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureIdImageNext);
-        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        if (size[0] == bitmap.getWidth() && size[1] == bitmap.getHeight()
+                && bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+        } else {
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+            size[0] = bitmap.getWidth();
+            size[1] = bitmap.getHeight();
+            Log.d(TAG, "Image textures now use " + getTextureBytes() / 1024 + " KB");
+        }
     }
     
     public void swapTextures() {
         int temp = textureIdImage;
         textureIdImage = textureIdImageNext;
         textureIdImageNext = temp;
+        SurfaceImageTexture tempSurface = imageSurface;
+        imageSurface = nextImageSurface;
+        nextImageSurface = tempSurface;
+        int width = imageSize[0];
+        int height = imageSize[1];
+        imageSize[0] = nextImageSize[0];
+        imageSize[1] = nextImageSize[1];
+        nextImageSize[0] = width;
+        nextImageSize[1] = height;
     }
 
-    public void drawVideo() {
-        if (eglSurface == null)
-            return;
-
-        GLES20.glUseProgram(programVideo);
-
-        int positionHandle = GLES20.glGetAttribLocation(programVideo, "aPosition");
-        GLES20.glEnableVertexAttribArray(positionHandle);
-        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 0, vertexBuffer);
-
-        int texCoordHandle = GLES20.glGetAttribLocation(programVideo, "aTexCoord");
-        GLES20.glEnableVertexAttribArray(texCoordHandle);
-        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 0, textureBuffer);
-
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureIdVideo);
-        GLES20.glUniform1i(GLES20.glGetUniformLocation(programVideo, "uTexture"), 0);
-
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-
-        GLES20.glDisableVertexAttribArray(positionHandle);
-        GLES20.glDisableVertexAttribArray(texCoordHandle);
+    /**
+     * Sets {@code location} to the texture coordinate transform (scale.xy,
+     * offset.zw) that frames media of the given size on the surface:
+     * SCALE_DOWN fits it whole with black bars, SCALE_UP fills the surface
+     * cropping the centre, and the scroll modes fill the surface and move
+     * the crop window with {@link #setScrollPosition(float)}.
+     */
+    private void applyTransform(int location, int[] mediaSize) {
+        float scaleX = 1f;
+        float scaleY = 1f;
+        if (mediaSize[0] > 0 && mediaSize[1] > 0 && surfaceWidth > 0 && surfaceHeight > 0) {
+            // > 1 when the media is wider than the surface
+            float ratio = ((float) mediaSize[0] / mediaSize[1]) / ((float) surfaceWidth / surfaceHeight);
+            if (displayMode == TooWideImagesRule.SCALE_DOWN) {
+                // Sample beyond the texture on the short axis, which frame() paints black
+                if (ratio > 1f) scaleY = ratio; else scaleX = 1f / ratio;
+            } else {
+                // Sample a window of the texture on the long axis
+                if (ratio > 1f) scaleX = 1f / ratio; else scaleY = ratio;
+            }
+        }
+        float position = 0.5f;
+        if (displayMode == TooWideImagesRule.SCROLL_FORWARD) {
+            position = scrollPosition;
+        } else if (displayMode == TooWideImagesRule.SCROLL_BACKWARD) {
+            position = 1f - scrollPosition;
+        }
+        transform[0] = scaleX;
+        transform[1] = scaleY;
+        transform[2] = (1f - scaleX) * position;
+        transform[3] = (1f - scaleY) * 0.5f;
+        GLES20.glUniform4fv(location, 1, transform, 0);
+    }
 
-        egl.eglSwapBuffers(eglDisplay, eglSurface);
+    /** CPU time spent per drawn frame, including the buffer swap. */
+    public FrameTimeCounter getFrameTimes() {
+        return frameTimes;
     }
 
-    public void drawImage() {
-        drawImageInternal(0.0f);
+    /** Draws {@code layer} alone. */
+    public void drawLayer(int layer) {
+        draw(TransitionEffect.CROSS_FADE, layer, layer, 0f);
     }
 
-    public void drawImageTransition(float mix) {
-        drawImageInternal(mix);
+    /**
+     * Draws layer {@code from} mixed into layer {@code to} by {@code mix},
+     * from 0 (only {@code from}) to 1 (only {@code to}), using the effect
+     * from {@link #setTransitionEffect}. Any two layers can be combined, so
+     * image and video transitions all go through here.
+     */
+    public void drawLayers(int from, int to, float mix) {
+        draw(transitionEffect, from, to, mix);
     }
 
-    private void drawImageInternal(float mix) {
+    private void draw(TransitionEffect effect, int from, int to, float mix) {
         if (eglSurface == null)
             return;
 
-        GLES20.glUseProgram(programImage);
+        long start = System.nanoTime();
+        CompositeProgram program = programs[programIndex(effect, isExternal(from), isExternal(to))];
+        useProgram(program);
+
+        bindLayer(GLES20.GL_TEXTURE0, from, program.texMatrix, program.transform);
+        bindLayer(GLES20.GL_TEXTURE1, to, program.texMatrixNext, program.transformNext);
+        GLES20.glUniform1f(program.mix, mix);
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
 
-        int positionHandle = GLES20.glGetAttribLocation(programImage, "aPosition");
-        GLES20.glEnableVertexAttribArray(positionHandle);
-        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 0, vertexBuffer);
+        egl.eglSwapBuffers(eglDisplay, eglSurface);
+        long elapsed = System.nanoTime() - start;
+        frameTimes.record(elapsed);
+        WallpaperTelemetry.get().record(WallpaperTelemetry.Metric.DRAW_CPU, elapsed / 1000);
+    }
 
-        int texCoordHandle = GLES20.glGetAttribLocation(programImage, "aTexCoord");
-        GLES20.glEnableVertexAttribArray(texCoordHandle);
-        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 0, textureBuffer);
+    private void bindLayer(int unit, int layer, int texMatrixLocation, int transformLocation) {
+        GLES20.glActiveTexture(unit);
+        if (isExternal(layer)) {
+            GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, layerTextureId(layer));
+            GLES20.glUniformMatrix4fv(texMatrixLocation, 1, false, layerTexMatrix(layer), 0);
+        } else {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, layerTextureId(layer));
+        }
+        applyTransform(transformLocation, layerSize(layer));
+    }
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureIdImage);
-        GLES20.glUniform1i(GLES20.glGetUniformLocation(programImage, "uTexture"), 0);
+    private boolean isExternal(int layer) {
+        return layer >= LAYER_VIDEO || hardwareImages;
+    }
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureIdImageNext);
-        GLES20.glUniform1i(GLES20.glGetUniformLocation(programImage, "uTextureNext"), 1);
+    private int layerTextureId(int layer) {
+        switch (layer) {
+            case LAYER_IMAGE:
+                return hardwareImages ? imageSurface.getTextureId() : textureIdImage;
+            case LAYER_NEXT_IMAGE:
+                return hardwareImages ? nextImageSurface.getTextureId() : textureIdImageNext;
+            default:
+                return videoTextureIds[layer - LAYER_VIDEO];
+        }
+    }
 
-        GLES20.glUniform1f(GLES20.glGetUniformLocation(programImage, "uMix"), mix);
+    private float[] layerTexMatrix(int layer) {
+        switch (layer) {
+            case LAYER_IMAGE:
+                return imageSurface.getTransformMatrix();
+            case LAYER_NEXT_IMAGE:
+                return nextImageSurface.getTransformMatrix();
+            default:
+                return videoTexMatrices[layer - LAYER_VIDEO];
+        }
+    }
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    private int[] layerSize(int layer) {
+        switch (layer) {
+            case LAYER_IMAGE:
+                return imageSize;
+            case LAYER_NEXT_IMAGE:
+                return nextImageSize;
+            default:
+                return videoSizes[layer - LAYER_VIDEO];
+        }
+    }
 
-        GLES20.glDisableVertexAttribArray(positionHandle);
-        GLES20.glDisableVertexAttribArray(texCoordHandle);
+    /** Switches program and re-points the quad attributes only when the program changes. */
+    private void useProgram(CompositeProgram program) {
+        if (program == currentProgram)
+            return;
+        GLES20.glUseProgram(program.program);
+        bindQuad(program.position, program.texCoord);
+        currentProgram = program;
+    }
 
-        egl.eglSwapBuffers(eglDisplay, eglSurface);
+    private void bindQuad(int position, int texCoord) {
+        GLES20.glEnableVertexAttribArray(position);
+        GLES20.glVertexAttribPointer(position, 2, GLES20.GL_FLOAT, false, QUAD_STRIDE, 0);
+        GLES20.glEnableVertexAttribArray(texCoord);
+        GLES20.glVertexAttribPointer(texCoord, 2, GLES20.GL_FLOAT, false, QUAD_STRIDE, 2 * FLOAT_BYTES);
     }
 
     public void release() {
+        frameTimes.logSummary();
+        releaseImageSurfaces();
         if (eglSurface != null) {
             egl.eglDestroySurface(eglDisplay, eglSurface);
             eglSurface = null;
@@ -21,8 +21,15 @@ package com.ojitos369.lumaloop.utilities;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.ImageDecoder;
+import android.graphics.Matrix;
 import android.media.MediaMetadataRetriever;
 import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+import androidx.exifinterface.media.ExifInterface;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,22 +37,29 @@ import java.io.InputStream;
 public class MediaLoader {
     private static final String TAG = "MediaLoader";
 
-    public static MediaInfo loadMedia(Uri uri, Context context, int targetWidth, int targetHeight,
+    public static MediaInfo loadMedia(Uri uri, Context context, DecodeTarget target,
             MediaInfo.MediaType type) throws IOException {
+        int targetWidth = target.getSurfaceWidth();
+        int targetHeight = target.getSurfaceHeight();
         String fileName = uri.getLastPathSegment();
         if (fileName == null) fileName = "Unknown";
         Bitmap bitmap = null;
 
         if (type == MediaInfo.MediaType.IMAGE) {
-            bitmap = loadBitmap(uri, context, targetWidth, targetHeight);
+            bitmap = loadBitmap(uri, context, target);
         } else if (type == MediaInfo.MediaType.VIDEO) {
             // For videos, we'll get a thumbnail
+            long start = System.nanoTime();
             MediaMetadataRetriever retriever = new MediaMetadataRetriever();
             try {
                 retriever.setDataSource(context, uri);
-                bitmap = retriever.getFrameAtTime();
-                if (bitmap != null) {
-                    bitmap = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
+                // Framing is done by the renderer, so keep the aspect ratio and let
+                // the decoder scale where it can instead of stretching on the CPU
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                    bitmap = retriever.getScaledFrameAtTime(-1, MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+                            targetWidth, targetHeight);
+                } else {
+                    bitmap = retriever.getFrameAtTime();
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -56,12 +70,37 @@ public class MediaLoader {
                     e.printStackTrace();
                 }
             }
+            WallpaperTelemetry.get().recordDecode(uri.toString(), true, (System.nanoTime() - start) / 1000,
+                    bitmap != null ? bitmap.getAllocationByteCount() : 0);
         }
 
         return new MediaInfo(uri, fileName, 0, bitmap, type);
     }
 
-    private static Bitmap loadBitmap(Uri uri, Context context, int targetWidth, int targetHeight) throws IOException {
+    /**
+     * Decodes the image once, straight to the size {@code target} asks for,
+     * and turned upright according to its EXIF orientation. The result is used both
+     * for the GL texture and for {@link MediaInfo#getImage()}, so no other decode of
+     * the same slide is needed.
+     */
+    static Bitmap loadBitmap(Uri uri, Context context, DecodeTarget target) throws IOException {
+        long start = System.nanoTime();
+        Bitmap bitmap = decodeBitmap(uri, context, target);
+        // Hardware bitmaps report the size of their graphics memory allocation
+        WallpaperTelemetry.get().recordDecode(uri.toString(), false, (System.nanoTime() - start) / 1000,
+                bitmap != null ? bitmap.getAllocationByteCount() : 0);
+        return bitmap;
+    }
+
+    private static Bitmap decodeBitmap(Uri uri, Context context, DecodeTarget target) throws IOException {
+        if (target.allowsHardwareBitmaps() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            try {
+                return decodeHardwareBitmap(uri, context, target);
+            } catch (IOException | RuntimeException e) {
+                // e.g. a format ImageDecoder rejects or no graphics memory left
+                Log.w(TAG, "Hardware decode failed, falling back to software: " + uri, e);
+            }
+        }
         Bitmap result = null;
         InputStream is = null;
         try {
@@ -71,18 +110,29 @@ public class MediaLoader {
                 options.inJustDecodeBounds = true;
                 BitmapFactory.decodeStream(is, null, options);
                 is.close();
+                is = null;
 
-                options.inSampleSize = calculateInSampleSize(options, targetWidth, targetHeight);
+                int degrees = getRotationDegrees(context, uri);
+                boolean sideways = degrees == 90 || degrees == 270;
+                // The target is for the upright image, the decoder works unrotated
+                int sourceWidth = options.outWidth;
+                int sourceHeight = options.outHeight;
+                float scale = sideways ? target.scaleFor(sourceHeight, sourceWidth)
+                        : target.scaleFor(sourceWidth, sourceHeight);
+                applyScale(options, scale);
                 options.inJustDecodeBounds = false;
 
                 is = context.getContentResolver().openInputStream(uri);
                 if (is != null) {
-                    Bitmap bitmap = BitmapFactory.decodeStream(is, null, options);
-                    if (bitmap != null) {
-                        result = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
-                        if (result != bitmap) {
-                            bitmap.recycle();
+                    result = BitmapFactory.decodeStream(is, null, options);
+                    if (result != null && degrees != 0) {
+                        Matrix matrix = new Matrix();
+                        matrix.setRotate(degrees);
+                        Bitmap rotated = Bitmap.createBitmap(result, 0, 0, result.getWidth(), result.getHeight(), matrix, true);
+                        if (rotated != result) {
+                            result.recycle();
                         }
+                        result = rotated;
                     }
                 }
             }
@@ -94,20 +144,62 @@ public class MediaLoader {
         return result;
     }
 
-    private static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
-
-        if (height > reqHeight || width > reqWidth) {
-            final int halfHeight = height / 2;
-            final int halfWidth = width / 2;
+    /**
+     * Decodes with {@link ImageDecoder} straight into graphics memory at the
+     * target size. ImageDecoder applies the EXIF orientation itself, and the
+     * sizes it reports are already upright.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.P)
+    private static Bitmap decodeHardwareBitmap(Uri uri, Context context, DecodeTarget target) throws IOException {
+        ImageDecoder.Source source = ImageDecoder.createSource(context.getContentResolver(), uri);
+        return ImageDecoder.decodeBitmap(source, (decoder, info, src) -> {
+            int width = info.getSize().getWidth();
+            int height = info.getSize().getHeight();
+            float scale = target.scaleFor(width, height);
+            if (scale < 1f) {
+                decoder.setTargetSize(Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)));
+            }
+            decoder.setAllocator(ImageDecoder.ALLOCATOR_HARDWARE);
+        });
+    }
 
-            while ((halfHeight / inSampleSize) >= reqHeight && (halfWidth / inSampleSize) >= reqWidth) {
-                inSampleSize *= 2;
+    private static int getRotationDegrees(Context context, Uri uri) throws IOException {
+        int result = 0;
+        InputStream inputStream = null;
+        try {
+            inputStream = context.getContentResolver().openInputStream(uri);
+            if (inputStream != null) {
+                result = new ExifInterface(inputStream).getRotationDegrees();
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Failed to get rotation degrees", e);
+        } finally {
+            if (inputStream != null) {
+                inputStream.close();
             }
         }
+        return result;
+    }
 
-        return inSampleSize;
+    /**
+     * Sets up {@code options} so the decoder produces the image scaled by
+     * {@code scale}: subsampling by the largest power of two that does not
+     * go below it, then density scaling for the rest, which the decoder
+     * applies while decoding instead of in a second bitmap.
+     */
+    private static void applyScale(BitmapFactory.Options options, float scale) {
+        int inSampleSize = 1;
+        while (inSampleSize * 2 * scale <= 1f) {
+            inSampleSize *= 2;
+        }
+        options.inSampleSize = inSampleSize;
+
+        int sampledWidth = options.outWidth / inSampleSize;
+        int targetWidth = Math.round(options.outWidth * scale);
+        if (targetWidth > 0 && targetWidth < sampledWidth) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = targetWidth;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,127 @@
+package com.ojitos369.lumaloop.utilities;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ojitos369.lumaloop.preferences.SharedPreferencesManager;
+
+/**
+ * Decodes upcoming playlist images on a background thread so they are ready
+ * when the slide timer fires. Bitmaps are kept in an LRU cache bounded by a
+ * byte budget and handed over (and removed) with {@link #take(Uri)}.
+ */
+public class MediaPrefetcher {
+    private static final String TAG = "MediaPrefetcher";
+
+    /** Cache budget, in surface-sized ARGB_8888 images. */
+    private static final int MAX_CACHED_SLIDES = 4;
+
+    private final Context context;
+    private final SharedPreferencesManager manager;
+    private final LruCache<Uri, Bitmap> cache;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "MediaPrefetcher");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    // Bumped on every new request or invalidation; queued work compares
+    // against it and drops out as soon as it is stale.
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private volatile DecodeTarget target;
+
+    public MediaPrefetcher(SharedPreferencesManager manager, Context context, DecodeTarget target) {
+        this.manager = manager;
+        this.context = context;
+        this.target = target;
+        this.cache = new LruCache<Uri, Bitmap>(calculateBudget(target.getSurfaceWidth(), target.getSurfaceHeight())) {
+            @Override
+            protected int sizeOf(Uri key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    private static int calculateBudget(int width, int height) {
+        long slides = (long) Math.max(width, 1) * Math.max(height, 1) * 4 * MAX_CACHED_SLIDES;
+        long heapShare = Runtime.getRuntime().maxMemory() / 8;
+        return (int) Math.min(Math.min(slides, heapShare), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Changes the decode size. Everything cached for the old size is dropped.
+     */
+    public void setTarget(DecodeTarget target) {
+        if (!this.target.equals(target)) {
+            this.target = target;
+            cache.resize(calculateBudget(target.getSurfaceWidth(), target.getSurfaceHeight()));
+            invalidate();
+        }
+    }
+
+    /**
+     * Decodes the images at the given playlist indices, in order. Videos are
+     * skipped. Supersedes any prefetch request that is still queued.
+     */
+    public void prefetch(final int[] indices) {
+        if (executor.isShutdown()) return;
+        final int requestGeneration = generation.incrementAndGet();
+        executor.execute(() -> {
+            for (int index : indices) {
+                if (requestGeneration != generation.get()) {
+                    return;
+                }
+                Uri uri = manager.getImageUri(index);
+                if (uri == null || cache.get(uri) != null) {
+                    continue;
+                }
+                if (MediaInfo.determineType(context, uri) != MediaInfo.MediaType.IMAGE) {
+                    continue;
+                }
+                try {
+                    Bitmap bitmap = MediaLoader.loadBitmap(uri, context, target);
+                    if (bitmap != null && requestGeneration == generation.get()) {
+                        cache.put(uri, bitmap);
+                        Log.d(TAG, "Prefetched " + uri);
+                    }
+                } catch (IOException | SecurityException e) {
+                    Log.w(TAG, "Could not prefetch " + uri, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the prefetched bitmap for {@code uri} and removes it from the
+     * cache, or {@code null} if it has not been decoded (yet).
+     */
+    public Bitmap take(Uri uri) {
+        return cache.remove(uri);
+    }
+
+    /**
+     * Cancels queued work and drops all cached bitmaps. Called when the
+     * playlist, ordering or tag filter changes.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        cache.evictAll();
+    }
+
+    /**
+     * Drops everything and stops the decode thread; later prefetch requests
+     * are ignored. Called when the owning handler stops for good.
+     */
+    public void shutdown() {
+        invalidate();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,91 @@
+package com.ojitos369.lumaloop.utilities;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * The latest samples of one metric in a fixed-size ring. Adding writes into
+ * a preallocated array and never allocates, so it is safe to call per
+ * frame; percentiles are computed from a copy when the ring is read.
+ */
+public final class MetricRing {
+    private final long[] samples;
+    private int next;
+    private int size;
+    // Samples ever added, including those overwritten since
+    private long total;
+
+    public MetricRing(int capacity) {
+        samples = new long[capacity];
+    }
+
+    public synchronized void add(long value) {
+        samples[next] = value;
+        next = (next + 1) % samples.length;
+        size = Math.min(size + 1, samples.length);
+        total++;
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        size = 0;
+        total = 0;
+    }
+
+    public Summary summarize() {
+        long[] copy;
+        long count;
+        synchronized (this) {
+            copy = Arrays.copyOf(samples, size);
+            count = total;
+        }
+        return new Summary(copy, count);
+    }
+
+    /** Statistics over the samples a ring held when it was summarized. */
+    public static final class Summary {
+        /** Samples the statistics are computed from, at most the ring's capacity. */
+        public final int samples;
+        public final long total;
+        public final long mean;
+        public final long p50;
+        public final long p95;
+        public final long p99;
+        public final long max;
+
+        Summary(long[] values, long total) {
+            Arrays.sort(values);
+            this.samples = values.length;
+            this.total = total;
+            long sum = 0;
+            for (long value : values) {
+                sum += value;
+            }
+            mean = values.length == 0 ? 0 : sum / values.length;
+            p50 = percentile(values, 50);
+            p95 = percentile(values, 95);
+            p99 = percentile(values, 99);
+            max = values.length == 0 ? 0 : values[values.length - 1];
+        }
+
+        /** Nearest-rank percentile of sorted {@code values}, 0 when empty. */
+        private static long percentile(long[] values, int percent) {
+            if (values.length == 0) return 0;
+            int rank = (int) Math.ceil(percent / 100.0 * values.length);
+            return values[Math.max(0, rank - 1)];
+        }
+
+        public JSONObject toJson() throws JSONException {
+            return new JSONObject()
+                    .put("samples", samples)
+                    .put("total", total)
+                    .put("mean", mean)
+                    .put("p50", p50)
+                    .put("p95", p95)
+                    .put("p99", p99)
+                    .put("max", max);
+        }
+    }
+}
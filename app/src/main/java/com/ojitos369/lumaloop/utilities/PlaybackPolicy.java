@@ -0,0 +1,207 @@
+package com.ojitos369.lumaloop.utilities;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * How much the slideshow is throttled for the device's power and thermal
+ * state: longer image intervals, a video frame rate cap, poster frames
+ * instead of videos and cuts instead of transitions, in increasing order of
+ * {@link Level}. Immutable; {@link PlaybackPolicyMonitor} keeps one current.
+ */
+public final class PlaybackPolicy {
+    public enum Level {
+        NORMAL,
+        REDUCED,
+        SAVING,
+        CRITICAL
+    }
+
+    /** What made the policy throttle, independent of the exact battery percentage. */
+    public enum Cause {
+        HEAT,
+        BATTERY_SAVER,
+        LOW_BATTERY
+    }
+
+    public static final PlaybackPolicy NORMAL = new PlaybackPolicy(Level.NORMAL,
+            Collections.unmodifiableSet(EnumSet.noneOf(Cause.class)), Collections.emptyList());
+
+    private static final int BATTERY_REDUCED_PERCENT = 30;
+    private static final int BATTERY_SAVING_PERCENT = 15;
+    private static final int BATTERY_CRITICAL_PERCENT = 5;
+
+    private final Level level;
+    private final Set<Cause> causes;
+    // Human readable causes of the level, for settings
+    private final List<String> reasons;
+
+    private PlaybackPolicy(Level level, Set<Cause> causes, List<String> reasons) {
+        this.level = level;
+        this.causes = causes;
+        this.reasons = reasons;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public Set<Cause> getCauses() {
+        return causes;
+    }
+
+    public List<String> getReasons() {
+        return reasons;
+    }
+
+    /** Factor the time between images is stretched by. */
+    public float getIntervalMultiplier() {
+        switch (level) {
+            case REDUCED:
+                return 1.5f;
+            case SAVING:
+                return 2f;
+            case CRITICAL:
+                return 3f;
+            default:
+                return 1f;
+        }
+    }
+
+    /** Highest rate video frames are drawn at, or 0 for every decoded frame. */
+    public int getMaxVideoFps() {
+        switch (level) {
+            case REDUCED:
+                return 30;
+            case SAVING:
+                return 24;
+            default:
+                return 0;
+        }
+    }
+
+    /** Whether videos play; otherwise their poster frame is shown as a still image. */
+    public boolean showsVideos() {
+        return level != Level.CRITICAL;
+    }
+
+    /** Whether slides change with a transition; otherwise they cut. */
+    public boolean usesTransitions() {
+        return level.compareTo(Level.SAVING) < 0;
+    }
+
+    /** One line for settings: what is throttled and why. */
+    public String describe() {
+        if (level == Level.NORMAL) {
+            return "Not throttled";
+        }
+        List<String> effects = new ArrayList<>();
+        effects.add("intervals ×" + formatFactor(getIntervalMultiplier()));
+        if (!showsVideos()) {
+            effects.add("still frames instead of videos");
+        } else if (getMaxVideoFps() > 0) {
+            effects.add("video at " + getMaxVideoFps() + " fps");
+        }
+        if (!usesTransitions()) {
+            effects.add("no transitions");
+        }
+        return TextUtils.join(", ", reasons) + ": " + TextUtils.join(", ", effects);
+    }
+
+    private static String formatFactor(float factor) {
+        return factor == (int) factor ? String.valueOf((int) factor) : String.valueOf(factor);
+    }
+
+    /**
+     * The policy for a snapshot of the device state. {@code thermalStatus}
+     * is one of the {@code PowerManager.THERMAL_STATUS_*} values, and
+     * {@code batteryPercent} is ignored while charging.
+     */
+    public static PlaybackPolicy evaluate(boolean powerSave, int thermalStatus, int batteryPercent, boolean charging) {
+        Level level = Level.NORMAL;
+        Set<Cause> causes = EnumSet.noneOf(Cause.class);
+        List<String> reasons = new ArrayList<>();
+        if (thermalStatus >= PowerManager.THERMAL_STATUS_LIGHT) {
+            Level thermal = thermalStatus >= PowerManager.THERMAL_STATUS_SEVERE ? Level.CRITICAL
+                    : thermalStatus >= PowerManager.THERMAL_STATUS_MODERATE ? Level.SAVING : Level.REDUCED;
+            level = max(level, thermal);
+            causes.add(Cause.HEAT);
+            reasons.add("Device is " + (thermal == Level.REDUCED ? "warm" : "hot"));
+        }
+        if (powerSave) {
+            level = max(level, Level.SAVING);
+            causes.add(Cause.BATTERY_SAVER);
+            reasons.add("Battery saver is on");
+        }
+        if (!charging && batteryPercent >= 0 && batteryPercent <= BATTERY_REDUCED_PERCENT) {
+            Level battery = batteryPercent <= BATTERY_CRITICAL_PERCENT ? Level.CRITICAL
+                    : batteryPercent <= BATTERY_SAVING_PERCENT ? Level.SAVING : Level.REDUCED;
+            level = max(level, battery);
+            causes.add(Cause.LOW_BATTERY);
+            reasons.add("Battery at " + batteryPercent + "%");
+        }
+        return level == Level.NORMAL ? NORMAL
+                : new PlaybackPolicy(level, Collections.unmodifiableSet(causes), Collections.unmodifiableList(reasons));
+    }
+
+    private static Level max(Level a, Level b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    /** Reads the current device state and evaluates it; cheap enough for every battery broadcast. */
+    public static PlaybackPolicy read(Context context) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        boolean powerSave = powerManager != null && powerManager.isPowerSaveMode();
+        int thermalStatus = PowerManager.THERMAL_STATUS_NONE;
+        if (powerManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            thermalStatus = powerManager.getCurrentThermalStatus();
+        }
+        // Sticky broadcast: returns the last battery state without registering anything
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        int percent = -1;
+        boolean charging = false;
+        if (battery != null) {
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                percent = level * 100 / scale;
+            }
+            charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        }
+        return evaluate(powerSave, thermalStatus, percent, charging);
+    }
+
+    /**
+     * Equal when the level and the kinds of cause are: the battery
+     * percentage in the reasons changes with every battery broadcast but
+     * does not change what is throttled.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PlaybackPolicy)) return false;
+        PlaybackPolicy other = (PlaybackPolicy) o;
+        return level == other.level && causes.equals(other.causes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * level.hashCode() + causes.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "PlaybackPolicy{" + level + ", " + reasons + "}";
+    }
+}
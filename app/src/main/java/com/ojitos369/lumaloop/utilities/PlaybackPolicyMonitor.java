@@ -0,0 +1,88 @@
+package com.ojitos369.lumaloop.utilities;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+/**
+ * Keeps a {@link PlaybackPolicy} current from battery, battery saver and
+ * thermal status changes, and reports it to a listener whenever it
+ * changes. Must be used on the main thread, where the updates arrive too.
+ * While disabled the policy is always {@link PlaybackPolicy#NORMAL}.
+ */
+public class PlaybackPolicyMonitor {
+    private static final String TAG = "PlaybackPolicyMonitor";
+
+    public interface Listener {
+        void onPolicyChanged(PlaybackPolicy policy);
+    }
+
+    private final Context context;
+    private final Listener listener;
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            update();
+        }
+    };
+    private PowerManager.OnThermalStatusChangedListener thermalListener;
+    private boolean enabled = true;
+    private boolean started;
+    private PlaybackPolicy policy = PlaybackPolicy.NORMAL;
+
+    public PlaybackPolicyMonitor(Context context, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.listener = listener;
+    }
+
+    public PlaybackPolicy getPolicy() {
+        return policy;
+    }
+
+    /** Follows the battery-aware playback setting; re-evaluates at once. */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (started) {
+            update();
+        }
+    }
+
+    public void start() {
+        if (started) return;
+        started = true;
+        IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+        filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        context.registerReceiver(receiver, filter);
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (powerManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            thermalListener = status -> update();
+            powerManager.addThermalStatusListener(context.getMainExecutor(), thermalListener);
+        }
+        update();
+    }
+
+    public void stop() {
+        if (!started) return;
+        started = false;
+        context.unregisterReceiver(receiver);
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (thermalListener != null && powerManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            powerManager.removeThermalStatusListener(thermalListener);
+        }
+        thermalListener = null;
+    }
+
+    private void update() {
+        PlaybackPolicy next = enabled ? PlaybackPolicy.read(context) : PlaybackPolicy.NORMAL;
+        boolean changed = !next.equals(policy);
+        // Kept even when equal, so getPolicy() describes the latest battery level
+        policy = next;
+        if (!changed) return;
+        Log.d(TAG, "Playback policy: " + next);
+        listener.onPolicyChanged(next);
+    }
+}
@@ -0,0 +1,94 @@
+package com.ojitos369.lumaloop.utilities;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.os.Handler;
+import android.view.Surface;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * External texture that images are drawn into with a hardware canvas. A
+ * hardware bitmap drawn this way is copied GPU to GPU into the
+ * {@link SurfaceTexture}'s buffer, so its pixels never pass through CPU
+ * memory, unlike {@code GLUtils.texImage2D}. Must be created, latched and
+ * released on the GL thread; frames become available asynchronously, and
+ * {@link #isReady()} turns true once the last drawn image is latched.
+ */
+class SurfaceImageTexture {
+    private final int textureId;
+    private final SurfaceTexture surfaceTexture;
+    private final Surface surface;
+    private final float[] transformMatrix = new float[16];
+    private boolean frameAvailable;
+    private boolean ready;
+
+    SurfaceImageTexture(int textureId, Handler handler, Runnable onFrameAvailable) {
+        this.textureId = textureId;
+        surfaceTexture = new SurfaceTexture(textureId);
+        surfaceTexture.setOnFrameAvailableListener(texture -> {
+            frameAvailable = true;
+            onFrameAvailable.run();
+        }, handler);
+        surface = new Surface(surfaceTexture);
+    }
+
+    int getTextureId() {
+        return textureId;
+    }
+
+    /** Transform from the texture's standard coordinates to its buffer, see {@link SurfaceTexture#getTransformMatrix}. */
+    float[] getTransformMatrix() {
+        return transformMatrix;
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    /** Draws {@code bitmap} into a new buffer of exactly its size. */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    void draw(Bitmap bitmap) {
+        surfaceTexture.setDefaultBufferSize(bitmap.getWidth(), bitmap.getHeight());
+        Canvas canvas = surface.lockHardwareCanvas();
+        try {
+            canvas.drawColor(Color.BLACK);
+            canvas.drawBitmap(bitmap, 0, 0, null);
+        } finally {
+            surface.unlockCanvasAndPost(canvas);
+        }
+        ready = false;
+    }
+
+    /** Latches the newest drawn image into the texture, if one has arrived. */
+    void latch() {
+        if (frameAvailable) {
+            frameAvailable = false;
+            surfaceTexture.updateTexImage();
+            surfaceTexture.getTransformMatrix(transformMatrix);
+            ready = true;
+        }
+    }
+
+    void release() {
+        surface.release();
+        surfaceTexture.release();
+    }
+
+    /** Creates the external texture object for a new instance. */
+    static int createTexture() {
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textures[0]);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        return textures[0];
+    }
+}
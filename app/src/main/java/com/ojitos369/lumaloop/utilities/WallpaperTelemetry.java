@@ -0,0 +1,175 @@
+package com.ojitos369.lumaloop.utilities;
+
+import android.os.Build;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process metrics of the wallpaper engine, shared by the service and the
+ * diagnostics sheet in settings, which run in the same process. Every metric
+ * keeps its latest samples in a {@link MetricRing}, so recording costs no
+ * allocation and memory stays fixed however long the wallpaper runs.
+ * Nothing is persisted; {@link #toJson()} is the export.
+ */
+public final class WallpaperTelemetry {
+    private static final int SLIDE_SAMPLES = 256;
+    private static final int FRAME_SAMPLES = 1024;
+    private static final int RECENT_SLIDES = 32;
+
+    public enum Metric {
+        DECODE("decode_us", "Decode time", SLIDE_SAMPLES),
+        BITMAP_BYTES("bitmap_bytes", "Bitmap size", SLIDE_SAMPLES),
+        UPLOAD("upload_us", "Texture upload", SLIDE_SAMPLES),
+        VIDEO_FIRST_FRAME("video_first_frame_us", "Video first frame", SLIDE_SAMPLES),
+        // Vsync to vsync while a transition runs; a missed vsync shows up as a doubled interval
+        TRANSITION_FRAME("transition_frame_interval_us", "Transition frame interval", FRAME_SAMPLES),
+        DRAW_CPU("draw_cpu_us", "Draw CPU time", FRAME_SAMPLES);
+
+        private final String key;
+        private final String label;
+        private final int capacity;
+
+        Metric(String key, String label, int capacity) {
+            this.key = key;
+            this.label = label;
+            this.capacity = capacity;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /** Whether samples are bytes; all other metrics are microseconds. */
+        public boolean isBytes() {
+            return this == BITMAP_BYTES;
+        }
+    }
+
+    /** One decoded slide, kept so slow or huge files can be identified. */
+    public static final class Slide {
+        public final long timeMillis;
+        public final String uri;
+        public final boolean video;
+        public final long decodeMicros;
+        public final long bytes;
+
+        Slide(long timeMillis, String uri, boolean video, long decodeMicros, long bytes) {
+            this.timeMillis = timeMillis;
+            this.uri = uri;
+            this.video = video;
+            this.decodeMicros = decodeMicros;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final WallpaperTelemetry INSTANCE = new WallpaperTelemetry();
+
+    private final MetricRing[] rings = new MetricRing[Metric.values().length];
+    private final AtomicLong rebuffers = new AtomicLong();
+    private volatile long textureBytes;
+    private final ArrayDeque<Slide> recentSlides = new ArrayDeque<>(RECENT_SLIDES);
+
+    private WallpaperTelemetry() {
+        for (Metric metric : Metric.values()) {
+            rings[metric.ordinal()] = new MetricRing(metric.capacity);
+        }
+    }
+
+    public static WallpaperTelemetry get() {
+        return INSTANCE;
+    }
+
+    public void record(Metric metric, long value) {
+        rings[metric.ordinal()].add(value);
+    }
+
+    /** Records the decode of a slide, in the decode and bitmap size metrics and the recent slides. */
+    public void recordDecode(String uri, boolean video, long decodeMicros, long bytes) {
+        record(Metric.DECODE, decodeMicros);
+        if (bytes > 0) {
+            record(Metric.BITMAP_BYTES, bytes);
+        }
+        synchronized (recentSlides) {
+            if (recentSlides.size() == RECENT_SLIDES) {
+                recentSlides.removeFirst();
+            }
+            recentSlides.addLast(new Slide(System.currentTimeMillis(), uri, video, decodeMicros, bytes));
+        }
+    }
+
+    /** A player stalled to buffer after playback had started. */
+    public void recordRebuffer() {
+        rebuffers.incrementAndGet();
+    }
+
+    public long getRebufferCount() {
+        return rebuffers.get();
+    }
+
+    public void setTextureBytes(long bytes) {
+        textureBytes = bytes;
+    }
+
+    public long getTextureBytes() {
+        return textureBytes;
+    }
+
+    public MetricRing.Summary summarize(Metric metric) {
+        return rings[metric.ordinal()].summarize();
+    }
+
+    /** The latest decoded slides, oldest first. */
+    public List<Slide> getRecentSlides() {
+        synchronized (recentSlides) {
+            return new ArrayList<>(recentSlides);
+        }
+    }
+
+    public void reset() {
+        for (MetricRing ring : rings) {
+            ring.clear();
+        }
+        rebuffers.set(0);
+        synchronized (recentSlides) {
+            recentSlides.clear();
+        }
+    }
+
+    /** Everything recorded plus the device it was recorded on. */
+    public JSONObject toJson() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        for (Metric metric : Metric.values()) {
+            metrics.put(metric.key, summarize(metric).toJson());
+        }
+        JSONArray slides = new JSONArray();
+        for (Slide slide : getRecentSlides()) {
+            slides.put(new JSONObject()
+                    .put("time", slide.timeMillis)
+                    .put("uri", slide.uri)
+                    .put("type", slide.video ? "video" : "image")
+                    .put("decode_us", slide.decodeMicros)
+                    .put("bytes", slide.bytes));
+        }
+        return new JSONObject()
+                .put("device", new JSONObject()
+                        .put("manufacturer", Build.MANUFACTURER)
+                        .put("model", Build.MODEL)
+                        .put("sdk", Build.VERSION.SDK_INT))
+                .put("exported", System.currentTimeMillis())
+                .put("metrics", metrics)
+                .put("rebuffers", getRebufferCount())
+                .put("texture_bytes", getTextureBytes())
+                .put("recent_slides", slides);
+    }
+}
@@ -0,0 +1,73 @@
+package com.ojitos369.lumaloop.preferences;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Times {@link TagFilter} against {@link SharedPreferencesManager#matchesTagFilter}
+ * on a library of 50k items and 200 tags, for every filter mode. Opt-in, as
+ * it is too slow for every test run: set {@code LUMALOOP_BENCHMARK=1} in the
+ * environment of {@code ./gradlew test}. Timings are reported in the
+ * assertion messages.
+ */
+public class TagFilterBenchmark {
+    private static final int ITEMS = 50_000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void compiledFilterIsFasterThanReference() {
+        assumeTrue("Set LUMALOOP_BENCHMARK to run", System.getenv("LUMALOOP_BENCHMARK") != null);
+
+        Random random = new Random(42);
+        List<Set<String>> items = new ArrayList<>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            items.add(TagFilterTest.randomTags(random, random.nextInt(6)));
+        }
+        Set<String> active = TagFilterTest.randomTags(random, 3);
+        Set<String> hidden = TagFilterTest.randomTags(random, 2);
+        Set<String> ignored = TagFilterTest.randomTags(random, 1);
+        hidden.removeAll(active);
+
+        TagFilter.Dictionary dictionary = new TagFilter.Dictionary();
+        long[][] bits = new long[ITEMS][];
+        for (int i = 0; i < ITEMS; i++) {
+            bits[i] = dictionary.encode(items.get(i));
+        }
+
+        for (SharedPreferencesManager.TagFilterMode mode : SharedPreferencesManager.TagFilterMode.values()) {
+            TagFilter filter = TagFilter.compile(dictionary, active, hidden, ignored, mode);
+            // Best of several rounds, so JIT warm-up and GC pauses don't count
+            long referenceNanos = Long.MAX_VALUE;
+            long compiledNanos = Long.MAX_VALUE;
+            int expected = 0;
+            int actual = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                expected = 0;
+                for (Set<String> tags : items) {
+                    if (TagFilterTest.matchesReference(tags, active, hidden, ignored, mode)) expected++;
+                }
+                referenceNanos = Math.min(referenceNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                actual = 0;
+                for (long[] item : bits) {
+                    if (filter.matches(item)) actual++;
+                }
+                compiledNanos = Math.min(compiledNanos, System.nanoTime() - start);
+            }
+            String report = String.format(java.util.Locale.ROOT, "%s: reference %.2f ms, compiled %.2f ms",
+                    mode, referenceNanos / 1e6, compiledNanos / 1e6);
+            assertEquals(report, expected, actual);
+            assertTrue(report, compiledNanos < referenceNanos);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.ojitos369.lumaloop.preferences;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link TagFilter} agrees with
+ * {@link SharedPreferencesManager#matchesTagFilter} for every filter mode.
+ */
+public class TagFilterTest {
+    private static final int ITEMS = 2_000;
+    private static final int TAGS = 200;
+
+    @Test
+    public void compiledFilterMatchesReference() {
+        Random random = new Random(42);
+        List<Set<String>> items = new ArrayList<>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            items.add(randomTags(random, random.nextInt(6)));
+        }
+        Set<String> active = randomTags(random, 3);
+        Set<String> hidden = randomTags(random, 2);
+        Set<String> ignored = randomTags(random, 1);
+        hidden.removeAll(active);
+
+        TagFilter.Dictionary dictionary = new TagFilter.Dictionary();
+        long[][] bits = new long[ITEMS][];
+        for (int i = 0; i < ITEMS; i++) {
+            bits[i] = dictionary.encode(items.get(i));
+        }
+
+        for (SharedPreferencesManager.TagFilterMode mode : SharedPreferencesManager.TagFilterMode.values()) {
+            TagFilter filter = TagFilter.compile(dictionary, active, hidden, ignored, mode);
+            for (int i = 0; i < ITEMS; i++) {
+                assertEquals(mode + " item " + i,
+                        matchesReference(items.get(i), active, hidden, ignored, mode),
+                        filter.matches(bits[i]));
+            }
+        }
+    }
+
+    @Test
+    public void emptySelectionKeepsEverythingNotHidden() {
+        TagFilter.Dictionary dictionary = new TagFilter.Dictionary();
+        Set<String> hidden = new HashSet<>();
+        hidden.add("private");
+        TagFilter filter = TagFilter.compile(dictionary, new HashSet<>(), hidden, new HashSet<>(),
+                SharedPreferencesManager.TagFilterMode.HAS_ALL);
+        Set<String> tags = new HashSet<>();
+        tags.add("beach");
+        assertTrue(filter.matches(dictionary.encode(tags)));
+        assertTrue(filter.matches(TagFilter.NO_TAGS));
+        tags.add("private");
+        assertFalse(filter.matches(dictionary.encode(tags)));
+    }
+
+    /** The way the gallery filtered before {@link TagFilter} existed. */
+    static boolean matchesReference(Set<String> tags, Set<String> active, Set<String> hidden,
+                                    Set<String> ignored,
+                                    SharedPreferencesManager.TagFilterMode mode) {
+        for (String tag : tags) {
+            if (hidden.contains(tag)) return false;
+        }
+        return active.isEmpty() || SharedPreferencesManager.matchesTagFilter(tags, active, ignored, mode);
+    }
+
+    static Set<String> randomTags(Random random, int count) {
+        Set<String> tags = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            tags.add("tag" + random.nextInt(TAGS));
+        }
+        return tags;
+    }
+}
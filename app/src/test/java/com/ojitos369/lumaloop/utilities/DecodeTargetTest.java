@@ -0,0 +1,56 @@
+package com.ojitos369.lumaloop.utilities;
+
+import com.ojitos369.lumaloop.preferences.SharedPreferencesManager.TooWideImagesRule;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DecodeTargetTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2400;
+    private static final float DELTA = 1e-4f;
+
+    private static DecodeTarget target(TooWideImagesRule mode, int maxTextureSize) {
+        return new DecodeTarget(WIDTH, HEIGHT, mode, maxTextureSize, false);
+    }
+
+    @Test
+    public void fitModeKeepsWholeImageInside() {
+        float scale = target(TooWideImagesRule.SCALE_DOWN, 8192).scaleFor(4000, 3000);
+        assertEquals(WIDTH / 4000f, scale, DELTA);
+    }
+
+    @Test
+    public void fillModeCoversSurface() {
+        float scale = target(TooWideImagesRule.SCALE_UP, 8192).scaleFor(4000, 3000);
+        assertEquals(HEIGHT / 3000f, scale, DELTA);
+        assertEquals(3200, Math.round(4000 * scale));
+        assertEquals(2400, Math.round(3000 * scale));
+    }
+
+    @Test
+    public void scrollModesKeepFullPanoramaResolution() {
+        // Covering the height would need 1.2, which is an upscale
+        assertEquals(1f, target(TooWideImagesRule.SCROLL_FORWARD, 16384).scaleFor(8000, 2000), DELTA);
+        assertEquals(1f, target(TooWideImagesRule.SCROLL_BACKWARD, 16384).scaleFor(8000, 2000), DELTA);
+    }
+
+    @Test
+    public void neverUpscales() {
+        for (TooWideImagesRule mode : TooWideImagesRule.values()) {
+            assertEquals(mode.name(), 1f, target(mode, 8192).scaleFor(500, 400), DELTA);
+        }
+    }
+
+    @Test
+    public void maxTextureSizeLimitsLongSide() {
+        float scale = target(TooWideImagesRule.SCROLL_FORWARD, 4096).scaleFor(8000, 2000);
+        assertEquals(4096 / 8000f, scale, DELTA);
+    }
+
+    @Test
+    public void unknownSizeIsNotScaled() {
+        assertEquals(1f, target(TooWideImagesRule.SCALE_UP, 8192).scaleFor(0, 3000), DELTA);
+    }
+}
@@ -0,0 +1,75 @@
+package com.ojitos369.lumaloop.utilities;
+
+import android.os.PowerManager;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class PlaybackPolicyTest {
+    private static final int COOL = PowerManager.THERMAL_STATUS_NONE;
+
+    @Test
+    public void idleDeviceIsNotThrottled() {
+        assertSame(PlaybackPolicy.NORMAL, PlaybackPolicy.evaluate(false, COOL, 80, false));
+        // Unknown battery level
+        assertSame(PlaybackPolicy.NORMAL, PlaybackPolicy.evaluate(false, COOL, -1, false));
+    }
+
+    @Test
+    public void thermalStatusSetsLevel() {
+        assertEquals(PlaybackPolicy.Level.REDUCED,
+                PlaybackPolicy.evaluate(false, PowerManager.THERMAL_STATUS_LIGHT, 80, false).getLevel());
+        assertEquals(PlaybackPolicy.Level.SAVING,
+                PlaybackPolicy.evaluate(false, PowerManager.THERMAL_STATUS_MODERATE, 80, false).getLevel());
+        assertEquals(PlaybackPolicy.Level.CRITICAL,
+                PlaybackPolicy.evaluate(false, PowerManager.THERMAL_STATUS_SEVERE, 80, false).getLevel());
+        assertEquals(EnumSet.of(PlaybackPolicy.Cause.HEAT),
+                PlaybackPolicy.evaluate(false, PowerManager.THERMAL_STATUS_LIGHT, 80, false).getCauses());
+    }
+
+    @Test
+    public void batterySaverSaves() {
+        PlaybackPolicy policy = PlaybackPolicy.evaluate(true, COOL, 80, false);
+        assertEquals(PlaybackPolicy.Level.SAVING, policy.getLevel());
+        assertEquals(EnumSet.of(PlaybackPolicy.Cause.BATTERY_SAVER), policy.getCauses());
+    }
+
+    @Test
+    public void batteryThresholds() {
+        assertSame(PlaybackPolicy.NORMAL, PlaybackPolicy.evaluate(false, COOL, 31, false));
+        assertEquals(PlaybackPolicy.Level.REDUCED, PlaybackPolicy.evaluate(false, COOL, 30, false).getLevel());
+        assertEquals(PlaybackPolicy.Level.SAVING, PlaybackPolicy.evaluate(false, COOL, 15, false).getLevel());
+        assertEquals(PlaybackPolicy.Level.CRITICAL, PlaybackPolicy.evaluate(false, COOL, 5, false).getLevel());
+    }
+
+    @Test
+    public void chargingIgnoresBatteryLevel() {
+        assertSame(PlaybackPolicy.NORMAL, PlaybackPolicy.evaluate(false, COOL, 3, true));
+        // Battery saver and heat still apply while charging
+        assertEquals(PlaybackPolicy.Level.SAVING, PlaybackPolicy.evaluate(true, COOL, 3, true).getLevel());
+    }
+
+    @Test
+    public void strongestCauseWins() {
+        PlaybackPolicy policy = PlaybackPolicy.evaluate(true, PowerManager.THERMAL_STATUS_LIGHT, 4, false);
+        assertEquals(PlaybackPolicy.Level.CRITICAL, policy.getLevel());
+        assertEquals(EnumSet.allOf(PlaybackPolicy.Cause.class), policy.getCauses());
+    }
+
+    @Test
+    public void batteryPercentDoesNotChangeEquality() {
+        assertEquals(PlaybackPolicy.evaluate(false, COOL, 28, false), PlaybackPolicy.evaluate(false, COOL, 27, false));
+        assertEquals(PlaybackPolicy.evaluate(false, COOL, 28, false).hashCode(),
+                PlaybackPolicy.evaluate(false, COOL, 27, false).hashCode());
+        // Same level, different cause
+        assertNotEquals(PlaybackPolicy.evaluate(false, COOL, 28, false),
+                PlaybackPolicy.evaluate(false, PowerManager.THERMAL_STATUS_LIGHT, 80, false));
+        // Same cause, different level
+        assertNotEquals(PlaybackPolicy.evaluate(false, COOL, 28, false), PlaybackPolicy.evaluate(false, COOL, 10, false));
+    }
+}